@@ -0,0 +1,47 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.function.BooleanSupplier;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Polls a condition with exponentially growing intervals until it holds or the timeout expires
+ */
+class BackoffPolling {
+
+  private BackoffPolling() {
+  }
+
+  /**
+   * @return true if the condition held before the timeout expired
+   */
+  static boolean await(@NotNull BooleanSupplier condition, long timeoutMs, long initialIntervalMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    long interval = Math.max(1, initialIntervalMs);
+    while (!condition.getAsBoolean()) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      Thread.sleep(Math.min(interval, remaining));
+      interval = Math.min(interval * 2, Math.max(1, timeoutMs));
+    }
+    return true;
+  }
+}
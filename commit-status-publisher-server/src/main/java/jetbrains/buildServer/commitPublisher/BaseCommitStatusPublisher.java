@@ -32,9 +32,9 @@ public abstract class BaseCommitStatusPublisher implements CommitStatusPublisher
   public static final int DEFAULT_CONNECTION_TIMEOUT = 10000;
   public static final String CONNECTION_TIMEOUT_PARAM = "commitStatusPublisher.connectionTimeout";
   protected final Map<String, String> myParams;
-  private int myConnectionTimeout;
-  protected CommitStatusPublisherProblems myProblems;
-  protected SBuildType myBuildType;
+  private final int myConnectionTimeout;
+  protected final CommitStatusPublisherProblems myProblems;
+  protected final SBuildType myBuildType;
   private final String myBuildFeatureId;
   private final CommitStatusPublisherSettings mySettings;
 
@@ -47,52 +47,56 @@ public abstract class BaseCommitStatusPublisher implements CommitStatusPublisher
     myProblems = problems;
     myBuildType = buildType;
     myBuildFeatureId = buildFeatureId;
-    myConnectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+    myConnectionTimeout = parseConnectionTimeout(buildType);
+  }
+
+  private static int parseConnectionTimeout(@NotNull SBuildType buildType) {
     if (buildType instanceof BuildTypeEx) {
       String strTimeout = ((BuildTypeEx)buildType).getInternalParameterValue(CONNECTION_TIMEOUT_PARAM, "");
       if (!StringUtil.isEmpty(strTimeout)) {
         try {
-          myConnectionTimeout = Integer.parseInt(strTimeout);
+          return Integer.parseInt(strTimeout);
         } catch (NumberFormatException ex) {
           LOG.warnAndDebugDetails("Failure to parse connection timeout value " + strTimeout, ex);
         }
       }
     }
+    return DEFAULT_CONNECTION_TIMEOUT;
   }
 
   protected abstract WebLinks getLinks();
 
   public boolean buildQueued(@NotNull BuildPromotion buildPromotion, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
-    return false;
+    return true;
   }
 
   public boolean buildRemovedFromQueue(@NotNull BuildPromotion buildPromotion, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
-    return false;
+    return true;
   }
 
   public boolean buildStarted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    return false;
+    return true;
   }
 
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    return false;
+    return true;
   }
 
   public boolean buildCommented(@NotNull SBuild build, @NotNull BuildRevision revision, @Nullable User user, @Nullable String comment, boolean buildInProgress)
     throws PublisherException {
-    return false;
+    return true;
   }
 
   public boolean buildInterrupted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    return false;
+    return true;
   }
 
   public boolean buildFailureDetected(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    return false;
+    return true;
   }
 
   public boolean buildMarkedAsSuccessful(@NotNull SBuild build, @NotNull BuildRevision revision, boolean buildInProgress) throws PublisherException {
-    return false;
+    return true;
   }
 
   protected int getConnectionTimeout() {
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Starts the asynchronous tasks keeping no more than the specified number of them running at the same time.
+ * The resulting future is completed when all the tasks are completed; if some of them have failed,
+ * it is completed exceptionally with the first failure, the other failures are added to it as suppressed.
+ */
+class BoundedFanOut {
+
+  private final List<Supplier<CompletableFuture<Void>>> myTasks;
+  private final int myParallelism;
+  private final AtomicInteger myNextTask = new AtomicInteger();
+  private final AtomicInteger myRemainingTasks;
+  private final List<Throwable> myFailures = new ArrayList<>();
+  private final CompletableFuture<Void> myResult = new CompletableFuture<>();
+
+  BoundedFanOut(@NotNull List<Supplier<CompletableFuture<Void>>> tasks, int parallelism) {
+    myTasks = tasks;
+    myParallelism = Math.max(1, parallelism);
+    myRemainingTasks = new AtomicInteger(tasks.size());
+  }
+
+  @NotNull
+  CompletableFuture<Void> start() {
+    if (myTasks.isEmpty()) {
+      myResult.complete(null);
+      return myResult;
+    }
+    for (int i = 0; i < Math.min(myParallelism, myTasks.size()); i++) {
+      startNext();
+    }
+    return myResult;
+  }
+
+  private void startNext() {
+    int index = myNextTask.getAndIncrement();
+    if (index >= myTasks.size()) {
+      return;
+    }
+    CompletableFuture<Void> task;
+    try {
+      task = myTasks.get(index).get();
+    } catch (Throwable t) {
+      task = new CompletableFuture<>();
+      task.completeExceptionally(t);
+    }
+    task.whenComplete((r, t) -> {
+      if (t != null) {
+        synchronized (myFailures) {
+          myFailures.add(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+        }
+      }
+      if (myRemainingTasks.decrementAndGet() == 0) {
+        complete();
+      } else {
+        startNext();
+      }
+    });
+  }
+
+  private void complete() {
+    synchronized (myFailures) {
+      if (myFailures.isEmpty()) {
+        myResult.complete(null);
+        return;
+      }
+      Throwable failure = myFailures.get(0);
+      myFailures.stream().skip(1).forEach(failure::addSuppressed);
+      myResult.completeExceptionally(failure);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.Used;
+import jetbrains.buildServer.commitPublisher.CommitStatusPublisher.Event;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Remembers the last event of CONSEQUENT priority accepted for every running build,
+ * so that events of FIRST priority arriving after it are not published.
+ * The state of a build is dropped as soon as its terminal event has been published:
+ * after that point the build is finished, which rejects FIRST events by itself.
+ * The terminal event may never be published by this node (e.g. the feature is removed while the build is running,
+ * or another node becomes responsible for the build), so the states not accessed for a long time expire as well.
+ * The number of the expired and evicted states is reported with the publishing stats: a growing one means the terminal events are lost.
+ */
+class BuildEventStates {
+
+  private static final int MAX_TRACKED_BUILDS = 100_000;
+  private static final long EXPIRATION_HOURS = 24;
+
+  private final Cache<Long, Event> myStates;
+  private final ConcurrentMap<Long, Event> myLastConsequentEvents;
+
+  BuildEventStates() {
+    this(Ticker.systemTicker());
+  }
+
+  @Used("tests")
+  BuildEventStates(@NotNull Ticker ticker) {
+    myStates = CacheBuilder.newBuilder()
+                           .maximumSize(MAX_TRACKED_BUILDS)
+                           .expireAfterAccess(EXPIRATION_HOURS, TimeUnit.HOURS)
+                           .ticker(ticker)
+                           .recordStats()
+                           .build();
+    myLastConsequentEvents = myStates.asMap();
+  }
+
+  /**
+   * @return true if the event is allowed to be published for the build
+   */
+  boolean accept(long buildId, @NotNull Event event, boolean isBuildFinished) {
+    if (event.isFirstTask()) {
+      return !isBuildFinished && !myLastConsequentEvents.containsKey(buildId);
+    }
+    if (event.isConsequentTask() && !isBuildFinished) {
+      myLastConsequentEvents.put(buildId, event);
+    }
+    return true;
+  }
+
+  void published(long buildId, @NotNull Event event, boolean isBuildFinished) {
+    if (isBuildFinished || isTerminal(event)) {
+      myLastConsequentEvents.remove(buildId);
+    }
+  }
+
+  @Nullable
+  Event getLastConsequentEvent(long buildId) {
+    return myLastConsequentEvents.get(buildId);
+  }
+
+  int size() {
+    myStates.cleanUp();
+    return (int)myStates.size();
+  }
+
+  /**
+   * @return number of the states which have expired or have been evicted by the size limit rather than removed after the terminal event
+   */
+  long getEvictionCount() {
+    return myStates.stats().evictionCount();
+  }
+
+  @Override
+  public String toString() {
+    return "size: " + size() + ", evicted: " + getEvictionCount();
+  }
+
+  private static boolean isTerminal(@NotNull Event event) {
+    return event == Event.FINISHED || event == Event.INTERRUPTED;
+  }
+}
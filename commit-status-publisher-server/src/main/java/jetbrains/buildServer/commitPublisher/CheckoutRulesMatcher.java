@@ -0,0 +1,163 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import jetbrains.buildServer.vcs.CheckoutRules;
+import jetbrains.buildServer.vcs.IncludeRule;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Checkout rules compiled for matching many changed files.
+ * A file can only be included by the rules if it lies under the source path of an include rule,
+ * so the include paths are kept in a prefix tree which discards the rest of the files without
+ * evaluating the rules. The files under the include paths are checked by {@link CheckoutRules} itself,
+ * so exclude rules and any other subtleties of the rules work as before.
+ */
+class CheckoutRulesMatcher {
+
+  private final CheckoutRules myRules;
+  private final boolean myIncludesEverything;
+  private final PrefixNode myIncludePaths;
+
+  private CheckoutRulesMatcher(@NotNull CheckoutRules rules, boolean includesEverything, PrefixNode includePaths) {
+    myRules = rules;
+    myIncludesEverything = includesEverything;
+    myIncludePaths = includePaths;
+  }
+
+  @NotNull
+  static CheckoutRulesMatcher compile(@NotNull CheckoutRules rules) {
+    PrefixNode includePaths = new PrefixNode();
+    boolean includesRoot = rules.getIncludeRules().isEmpty();
+    for (IncludeRule rule : rules.getIncludeRules()) {
+      String from = normalize(rule.getFrom());
+      if (from.isEmpty() || from.equals(".")) {
+        includesRoot = true;
+      } else if (from.indexOf('*') >= 0 || from.indexOf('?') >= 0) {
+        // patterns are not prefixes, leave the evaluation to the rules
+        includesRoot = true;
+      } else {
+        includePaths.add(from);
+      }
+    }
+    if (includesRoot) {
+      return new CheckoutRulesMatcher(rules, rules.getExcludeRules().isEmpty(), null);
+    }
+    return new CheckoutRulesMatcher(rules, false, includePaths);
+  }
+
+  @NotNull
+  CheckoutRules getRules() {
+    return myRules;
+  }
+
+  /**
+   * @return true if at least one of the files is included by the rules, stops on the first such file
+   */
+  boolean matchesAny(@NotNull Collection<String> relativeFileNames) {
+    for (String fileName : relativeFileNames) {
+      if (matches(fileName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean matches(@NotNull String relativeFileName) {
+    if (myIncludesEverything) {
+      return true;
+    }
+    if (myIncludePaths != null && !myIncludePaths.covers(normalize(relativeFileName))) {
+      return false;
+    }
+    return myRules.shouldInclude(relativeFileName);
+  }
+
+  @NotNull
+  private static String normalize(@NotNull String path) {
+    String result = path.replace('\\', '/');
+    int start = 0;
+    int end = result.length();
+    while (start < end && result.charAt(start) == '/') {
+      start++;
+    }
+    while (end > start && result.charAt(end - 1) == '/') {
+      end--;
+    }
+    return result.substring(start, end);
+  }
+
+  /**
+   * Node of a tree of path segments. Segments are compared case-insensitively, so the tree
+   * never discards a file which the rules could include on a case-insensitive file system.
+   */
+  private static class PrefixNode {
+    private final Map<String, PrefixNode> myChildren = new HashMap<>();
+    private boolean myIsPathEnd;
+
+    void add(@NotNull String path) {
+      PrefixNode node = this;
+      int start = 0;
+      while (start <= path.length()) {
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+          end = path.length();
+        }
+        if (end > start) {
+          node = node.myChildren.computeIfAbsent(segment(path, start, end), s -> new PrefixNode());
+        }
+        start = end + 1;
+      }
+      node.myIsPathEnd = true;
+    }
+
+    /**
+     * @return true if the path is equal to one of the added paths or lies under it
+     */
+    boolean covers(@NotNull String path) {
+      PrefixNode node = this;
+      int start = 0;
+      while (start <= path.length()) {
+        if (node.myIsPathEnd) {
+          return true;
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+          end = path.length();
+        }
+        if (end > start) {
+          node = node.myChildren.get(segment(path, start, end));
+          if (node == null) {
+            return false;
+          }
+        }
+        start = end + 1;
+      }
+      return node.myIsPathEnd;
+    }
+
+    @NotNull
+    private static String segment(@NotNull String path, int start, int end) {
+      return path.substring(start, end).toLowerCase(Locale.ENGLISH);
+    }
+  }
+}
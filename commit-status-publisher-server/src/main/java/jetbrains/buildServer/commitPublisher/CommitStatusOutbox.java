@@ -0,0 +1,494 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import jetbrains.buildServer.Used;
+import jetbrains.buildServer.commitPublisher.CommitStatusPublisher.Event;
+import jetbrains.buildServer.serverSide.CurrentNodeInfo;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.executors.ExecutorServices;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
+
+/**
+ * Append-only journal of the statuses which are being published. An entry is recorded before the status is sent to the VCS host
+ * and acknowledged once it has been published, so the entries left after a server restart or a VCS host outage are the statuses
+ * which may be missing and have to be published again.
+ * Only the event and the ids needed to find the build again are stored, the requests themselves and the credentials are not.
+ * A newer event for the same build, feature, root and revision replaces the older one, so an outdated status is never republished.
+ * The outbox also keeps the builds which the queued status has been published for until they leave the queue,
+ * so the queued statuses of the builds removed from the queue while the server was down can be replaced after the restart.
+ * The publishing threads only update the pending entries in memory and queue the journal lines, the lines are appended to the file
+ * in batches by a single writer task. The writer also rewrites the journal with the pending entries only when it grows too large,
+ * which keeps the file size bounded.
+ */
+public class CommitStatusOutbox {
+
+  final static String ENABLED_PROPERTY_NAME = "teamcity.commitStatusPublisher.outbox.enabled";
+  final static String MAX_ENTRIES_PROPERTY_NAME = "teamcity.commitStatusPublisher.outbox.maxEntries";
+  final static String COMPACTION_THRESHOLD_PROPERTY_NAME = "teamcity.commitStatusPublisher.outbox.compactionThreshold";
+  private final static String FILE_NAME_PREFIX = "outbox-";
+  private final static String FILE_NAME_SUFFIX = ".log";
+  private final static String RECORD = "R";
+  private final static String ACKNOWLEDGE = "A";
+  private final static String QUEUED_STATUS = "Q";
+  private final static String QUEUED_STATUS_REPLACED = "U";
+  private final static String SEPARATOR = "\t";
+
+  private final File myFile;
+  private final Executor myWriterExecutor;
+
+  // guards the pending entries and the queued lines, no I/O is done under it except the initial loading
+  private final Object myLock = new Object();
+  private final LinkedHashMap<String, Entry> myPendingEntries = new LinkedHashMap<>();
+  private final LinkedHashMap<Long, Long> myQueuedStatuses = new LinkedHashMap<>();
+  private List<String> myQueuedLines = new ArrayList<>();
+  private boolean myLoaded = false;
+  private boolean myCompactionRequested = false;
+
+  // guards the file, taken before myLock when both are needed
+  private final ReentrantLock myWriteLock = new ReentrantLock();
+  private final AtomicBoolean myWriteScheduled = new AtomicBoolean(false);
+  private Writer myWriter = null;
+  private int myLinesWritten = 0;
+  private volatile boolean myFailed = false;
+
+  public CommitStatusOutbox(@NotNull ServerPaths serverPaths, @NotNull ExecutorServices executorServices) {
+    // the data directory is shared by the nodes, every node keeps the statuses it publishes in a separate file
+    myFile = new File(new File(serverPaths.getPluginDataDirectory(), "commit-status-publisher"), FILE_NAME_PREFIX + CurrentNodeInfo.getNodeId() + FILE_NAME_SUFFIX);
+    myWriterExecutor = executorServices.getLowPriorityExecutorService();
+  }
+
+  @Used("tests")
+  CommitStatusOutbox(@NotNull File file, @NotNull Executor writerExecutor) {
+    myFile = file;
+    myWriterExecutor = writerExecutor;
+  }
+
+  boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY_NAME);
+  }
+
+  /**
+   * Records the event as being published for the promotion and the publishing key, replacing the event recorded for the same key before.
+   * Recording the same event again, e.g. when it is republished, keeps the time it has been recorded first,
+   * so an event which keeps failing expires after the maximum age.
+   */
+  void record(long promotionId, @NotNull String key, @NotNull Event event) {
+    if (key.contains(SEPARATOR) || key.contains("\n")) {
+      LOG.debug("Commit status with the key \"" + key.trim() + "\" can not be recorded in the outbox");
+      return;
+    }
+    Entry entry = new Entry(promotionId, key, event, System.currentTimeMillis());
+    synchronized (myLock) {
+      ensureLoaded();
+      String id = getId(promotionId, key);
+      Entry recorded = myPendingEntries.get(id);
+      if (recorded != null && recorded.getEvent() == event) {
+        return;
+      }
+      myPendingEntries.remove(id);
+      myPendingEntries.put(id, entry);
+      dropOldestEntries();
+      queueLine(RECORD, entry);
+    }
+    scheduleWrite();
+  }
+
+  /**
+   * Acknowledges the event has been published. Nothing is done if a newer event has been recorded for the key since then.
+   */
+  void acknowledge(long promotionId, @NotNull String key, @NotNull Event event) {
+    synchronized (myLock) {
+      ensureLoaded();
+      String id = getId(promotionId, key);
+      Entry entry = myPendingEntries.get(id);
+      if (entry == null || entry.getEvent() != event) {
+        return;
+      }
+      myPendingEntries.remove(id);
+      queueLine(ACKNOWLEDGE, entry);
+    }
+    scheduleWrite();
+  }
+
+  /**
+   * Removes all the entries of the promotion, e.g. when the promotion no longer exists and there is nothing to publish for it
+   */
+  void forget(long promotionId) {
+    synchronized (myLock) {
+      ensureLoaded();
+      Iterator<Entry> i = myPendingEntries.values().iterator();
+      while (i.hasNext()) {
+        Entry entry = i.next();
+        if (entry.getPromotionId() == promotionId) {
+          i.remove();
+          queueLine(ACKNOWLEDGE, entry);
+        }
+      }
+    }
+    scheduleWrite();
+  }
+
+  /**
+   * @return pending entries recorded before the given time, the oldest ones first
+   */
+  @NotNull
+  List<Entry> getPendingBefore(long time, int maxEntries) {
+    synchronized (myLock) {
+      ensureLoaded();
+      List<Entry> result = new ArrayList<>();
+      for (Entry entry : myPendingEntries.values()) {
+        if (result.size() >= maxEntries || entry.getTime() >= time) {
+          break;
+        }
+        result.add(entry);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Records the queued status has been published for the promotion at the given time
+   */
+  void recordQueuedStatus(long promotionId, long publishTime) {
+    synchronized (myLock) {
+      ensureLoaded();
+      if (myQueuedStatuses.putIfAbsent(promotionId, publishTime) != null) {
+        return;
+      }
+      queueLine(QUEUED_STATUS + SEPARATOR + promotionId + SEPARATOR + publishTime);
+    }
+    scheduleWrite();
+  }
+
+  /**
+   * Removes the queued status of the promotion once the promotion has left the queue and its queued status has been replaced
+   */
+  void forgetQueuedStatus(long promotionId) {
+    synchronized (myLock) {
+      ensureLoaded();
+      if (myQueuedStatuses.remove(promotionId) == null) {
+        return;
+      }
+      queueLine(QUEUED_STATUS_REPLACED + SEPARATOR + promotionId);
+    }
+    scheduleWrite();
+  }
+
+  /**
+   * @return promotion ids mapped to the time their queued status has been published
+   */
+  @NotNull
+  Map<Long, Long> getQueuedStatuses() {
+    synchronized (myLock) {
+      ensureLoaded();
+      return new LinkedHashMap<>(myQueuedStatuses);
+    }
+  }
+
+  int size() {
+    synchronized (myLock) {
+      ensureLoaded();
+      return myPendingEntries.size();
+    }
+  }
+
+  /**
+   * Writes the queued lines and closes the file
+   */
+  void close() {
+    myWriteLock.lock();
+    try {
+      writeQueuedLines();
+      closeWriter();
+    } finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  @Used("tests")
+  void flush() {
+    writeQueuedLines();
+  }
+
+  @Used("tests")
+  @NotNull
+  File getFile() {
+    return myFile;
+  }
+
+  private void ensureLoaded() {
+    if (myLoaded) {
+      return;
+    }
+    myLoaded = true;
+    if (!myFile.isFile()) {
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(myFile.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        applyLine(line);
+      }
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Failed to read the commit statuses outbox " + myFile + ", statuses recorded before the server restart will not be republished", e);
+    }
+    dropOldestEntries();
+    if (!myPendingEntries.isEmpty()) {
+      LOG.info("Found " + myPendingEntries.size() + " commit statuses which may have not been published before the server restart");
+    }
+    if (!myQueuedStatuses.isEmpty()) {
+      LOG.info("Found " + myQueuedStatuses.size() + " queued commit statuses published before the server restart");
+    }
+    // the loaded journal may contain a lot of acknowledged entries and an incomplete last line, the writer replaces it
+    myCompactionRequested = true;
+  }
+
+  private void applyLine(@NotNull String line) {
+    String[] fields = line.split(SEPARATOR, -1);
+    try {
+      if (QUEUED_STATUS.equals(fields[0]) && fields.length == 3) {
+        myQueuedStatuses.putIfAbsent(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+        return;
+      }
+      if (QUEUED_STATUS_REPLACED.equals(fields[0]) && fields.length == 2) {
+        myQueuedStatuses.remove(Long.parseLong(fields[1]));
+        return;
+      }
+      if (fields.length != 5) {
+        // the last line can be incomplete if the server was stopped while writing it
+        return;
+      }
+      long promotionId = Long.parseLong(fields[1]);
+      Event event = Event.valueOf(fields[3]);
+      long time = Long.parseLong(fields[4]);
+      String id = getId(promotionId, fields[2]);
+      if (RECORD.equals(fields[0])) {
+        myPendingEntries.remove(id);
+        myPendingEntries.put(id, new Entry(promotionId, fields[2], event, time));
+      } else if (ACKNOWLEDGE.equals(fields[0])) {
+        Entry entry = myPendingEntries.get(id);
+        if (entry != null && entry.getEvent() == event) {
+          myPendingEntries.remove(id);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      LOG.debug("Skipping malformed commit statuses outbox line: " + line);
+    }
+  }
+
+  private void dropOldestEntries() {
+    int maxEntries = TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY_NAME, 10_000);
+    if (myPendingEntries.size() <= maxEntries) {
+      return;
+    }
+    int dropped = 0;
+    Iterator<Entry> i = myPendingEntries.values().iterator();
+    while (myPendingEntries.size() > maxEntries && i.hasNext()) {
+      i.next();
+      i.remove();
+      dropped++;
+    }
+    LOG.warn("Commit statuses outbox is full, " + dropped + " oldest statuses will not be republished");
+  }
+
+  private void queueLine(@NotNull String type, @NotNull Entry entry) {
+    queueLine(toLine(type, entry));
+  }
+
+  private void queueLine(@NotNull String line) {
+    if (!myFailed) {
+      myQueuedLines.add(line);
+    }
+  }
+
+  private void scheduleWrite() {
+    if (myFailed || !myWriteScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      myWriterExecutor.execute(this::runWriter);
+    } catch (RejectedExecutionException e) {
+      // the server is shutting down, the queued lines are written on close
+      myWriteScheduled.set(false);
+    }
+  }
+
+  private void runWriter() {
+    try {
+      writeQueuedLines();
+    } finally {
+      myWriteScheduled.set(false);
+    }
+    boolean hasQueuedLines;
+    synchronized (myLock) {
+      hasQueuedLines = !myQueuedLines.isEmpty();
+    }
+    if (hasQueuedLines) {
+      // the lines have been queued while the writer was finishing
+      scheduleWrite();
+    }
+  }
+
+  /**
+   * Appends the queued lines to the journal with a single flush or, when the journal has grown too large,
+   * replaces it with the one containing only the pending entries and the queued statuses
+   */
+  private void writeQueuedLines() {
+    myWriteLock.lock();
+    try {
+      List<String> lines;
+      List<String> compactedLines = null;
+      synchronized (myLock) {
+        if (myFailed) {
+          myQueuedLines.clear();
+          return;
+        }
+        int threshold = TeamCityProperties.getInteger(COMPACTION_THRESHOLD_PROPERTY_NAME, 10_000);
+        int size = myPendingEntries.size() + myQueuedStatuses.size();
+        if (myCompactionRequested || myLinesWritten + myQueuedLines.size() > Math.max(threshold, 2 * size)) {
+          // the queued lines are already applied to the pending entries and the queued statuses
+          myCompactionRequested = false;
+          compactedLines = new ArrayList<>(size);
+          for (Entry entry : myPendingEntries.values()) {
+            compactedLines.add(toLine(RECORD, entry));
+          }
+          for (Map.Entry<Long, Long> queuedStatus : myQueuedStatuses.entrySet()) {
+            compactedLines.add(QUEUED_STATUS + SEPARATOR + queuedStatus.getKey() + SEPARATOR + queuedStatus.getValue());
+          }
+          myQueuedLines.clear();
+        }
+        lines = myQueuedLines;
+        myQueuedLines = new ArrayList<>();
+      }
+      if (compactedLines != null) {
+        compact(compactedLines);
+      } else if (!lines.isEmpty()) {
+        append(lines);
+      }
+    } finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  private void append(@NotNull List<String> lines) {
+    try {
+      if (myWriter == null) {
+        FileUtil.createParentDirs(myFile);
+        myWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(myFile, true), StandardCharsets.UTF_8));
+      }
+      for (String line : lines) {
+        myWriter.write(line);
+        myWriter.write('\n');
+      }
+      myWriter.flush();
+      myLinesWritten += lines.size();
+    } catch (IOException e) {
+      fail("Failed to write to the commit statuses outbox " + myFile, e);
+    }
+  }
+
+  /**
+   * Replaces the journal with the one containing only the given lines
+   */
+  private void compact(@NotNull List<String> lines) {
+    closeWriter();
+    File tmpFile = new File(myFile.getParentFile(), myFile.getName() + ".tmp");
+    try {
+      FileUtil.createParentDirs(tmpFile);
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+        for (String line : lines) {
+          writer.write(line);
+          writer.write('\n');
+        }
+      }
+      Files.move(tmpFile.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      myLinesWritten = lines.size();
+    } catch (IOException e) {
+      FileUtil.delete(tmpFile);
+      fail("Failed to compact the commit statuses outbox " + myFile, e);
+    }
+  }
+
+  private void fail(@NotNull String message, @NotNull IOException e) {
+    LOG.warnAndDebugDetails(message + ", statuses will not be republished after the server restart", e);
+    myFailed = true;
+    closeWriter();
+  }
+
+  private void closeWriter() {
+    if (myWriter != null) {
+      FileUtil.close(myWriter);
+      myWriter = null;
+    }
+  }
+
+  @NotNull
+  private static String toLine(@NotNull String type, @NotNull Entry entry) {
+    return type + SEPARATOR + entry.getPromotionId() + SEPARATOR + entry.getKey() + SEPARATOR + entry.getEvent().name() + SEPARATOR + entry.getTime();
+  }
+
+  @NotNull
+  private static String getId(long promotionId, @NotNull String key) {
+    return promotionId + SEPARATOR + key;
+  }
+
+  static class Entry {
+    private final long myPromotionId;
+    private final String myKey;
+    private final Event myEvent;
+    private final long myTime;
+
+    private Entry(long promotionId, @NotNull String key, @NotNull Event event, long time) {
+      myPromotionId = promotionId;
+      myKey = key;
+      myEvent = event;
+      myTime = time;
+    }
+
+    long getPromotionId() {
+      return myPromotionId;
+    }
+
+    @NotNull
+    String getKey() {
+      return myKey;
+    }
+
+    @NotNull
+    Event getEvent() {
+      return myEvent;
+    }
+
+    long getTime() {
+      return myTime;
+    }
+  }
+}
@@ -21,6 +21,10 @@ import jetbrains.buildServer.users.User;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * The build* methods return false if publishing of the status has failed and it should be published again later.
+ * They return true when the status has been published and also when there is nothing to publish for the build or the revision.
+ */
 public interface CommitStatusPublisher {
 
   boolean isEventSupported(Event event);
@@ -56,6 +60,14 @@ public interface CommitStatusPublisher {
   @Nullable
   String getVcsRootId();
 
+  /**
+   * @return URL of the VCS hosting service the statuses are published to, or null if it is not known
+   */
+  @Nullable
+  default String getServerUrl() {
+    return null;
+  }
+
   @NotNull
   String toString();
 
@@ -16,14 +16,19 @@
 
 package jetbrains.buildServer.commitPublisher;
 
-import com.google.common.util.concurrent.Striped;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.intellij.openapi.util.Pair;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import jetbrains.buildServer.BuildProblemData;
@@ -35,7 +40,6 @@ import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.MultiNodeTasks.PerformingTask;
 import jetbrains.buildServer.serverSide.comments.Comment;
 import jetbrains.buildServer.serverSide.executors.ExecutorServices;
-import jetbrains.buildServer.serverSide.impl.DummyBuild;
 import jetbrains.buildServer.serverSide.impl.LogUtil;
 import jetbrains.buildServer.serverSide.userChanges.CanceledInfo;
 import jetbrains.buildServer.users.User;
@@ -47,20 +51,37 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
-import static jetbrains.buildServer.commitPublisher.ValueWithTTL.OUTDATED_CACHE_VALUE;
 
 public class CommitStatusPublisherListener extends BuildServerAdapter implements ChangesCollectionCondition {
 
   final static String PUBLISHING_ENABLED_PROPERTY_NAME = "teamcity.commitStatusPublisher.enabled";
   final static String EXPECTED_PROMOTIONS_CACHE_REFRESH_TIME_PROPERTY_NAME = "teamcity.commitStatusPublisher.promotionsCache.expectedRefreshTime";
+  final static String PROMOTIONS_CACHE_POLL_INTERVAL_PROPERTY_NAME = "teamcity.commitStatusPublisher.promotionsCache.pollInterval";
   final static String MODIFICATIONS_PROCESSING_DELAY_PROPERTY_NAME = "teamcity.commitStatusPublisher.modificationsProcessing.delay";
-  final static String CSP_FOR_BUILD_TYPE_CONFIGURATION_FLAG_TTL_PROPERTY_NAME = "teamcity.commitStatusPublisher.enabledForBuildCache.ttl";
+  final static String MODIFICATIONS_PROCESSING_BATCH_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.modificationsProcessing.batchSize";
+  final static String MODIFICATIONS_QUEUE_CAPACITY_PROPERTY_NAME = "teamcity.commitStatusPublisher.modificationsProcessing.queueCapacity";
+  final static String CSP_FOR_BUILD_TYPE_CONFIGURATION_CACHE_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.enabledForBuildCache.maxSize";
+  final static String PUBLISHING_PARALLELISM_PROPERTY_NAME = "teamcity.commitStatusPublisher.publishing.parallelismPerBuild";
   final static String MODIFICATIONS_PROCESSING_FEATURE_TOGGLE = "teamcity.internal.commitStatusPublisher.modificationsProcessing.enabled";
+  final static String QUEUED_TASKS_BATCH_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.queuedTasksBatch.maxSize";
+  final static String QUEUED_BATCH_TASK_TYPE = Event.QUEUED.getName() + "Batch";
+  final static String REMOVED_FROM_QUEUE_BATCH_WINDOW_PROPERTY_NAME = "teamcity.commitStatusPublisher.removedFromQueue.batchWindow";
+  final static String QUEUED_STATUSES_SWEEP_INTERVAL_PROPERTY_NAME = "teamcity.commitStatusPublisher.queuedStatusesSweeper.interval";
+  final static String QUEUED_STATUSES_MIN_AGE_PROPERTY_NAME = "teamcity.commitStatusPublisher.queuedStatusesSweeper.minAge";
+  final static String QUEUED_STATUSES_SWEEP_BATCH_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.queuedStatusesSweeper.batchSize";
+  final static String COMMENTED_DEBOUNCE_WINDOW_PROPERTY_NAME = "teamcity.commitStatusPublisher.commented.debounceWindow";
+  final static String OUTBOX_REPLAY_INTERVAL_PROPERTY_NAME = "teamcity.commitStatusPublisher.outbox.replayInterval";
+  final static String OUTBOX_REPLAY_MIN_AGE_PROPERTY_NAME = "teamcity.commitStatusPublisher.outbox.replayMinAge";
+  final static String OUTBOX_REPLAY_BATCH_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.outbox.replayBatchSize";
+  final static String OUTBOX_MAX_AGE_PROPERTY_NAME = "teamcity.commitStatusPublisher.outbox.maxAge";
+  final static String PUBLISHING_STATS_LOG_INTERVAL_PROPERTY_NAME = "teamcity.commitStatusPublisher.publishingStats.logInterval";
+  final static String SINGLE_NODE_DISPATCH_PROPERTY_NAME = "teamcity.commitStatusPublisher.singleNodeDispatch.enabled";
+  final static String ONLINE_NODES_REFRESH_INTERVAL_PROPERTY_NAME = "teamcity.commitStatusPublisher.onlineNodes.refreshInterval";
   final static String QUEUE_PAUSER_SYSTEM_PROPERTY = "teamcity.plugin.queuePauser.queue.enabled";
 
-  private final static int MAX_LAST_EVENTS_TO_REMEMBER = 1000;
-
-  private final PublisherManager myPublisherManager;
+  private final PublisherRegistry myPublisherRegistry;
+  private final ConcurrentMap<String, PublishingSettingsSnapshot> myPublishingSettingsSnapshots = new ConcurrentHashMap<>();
+  private final AtomicLong mySettingsVersion = new AtomicLong();
   private final BuildHistory myBuildHistory;
   private final BuildsManager myBuildsManager;
   private final BuildPromotionManager myBuildPromotionManager;
@@ -71,21 +92,41 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
   private final ProjectManager myProjectManager;
   private final TeamCityNodes myTeamCityNodes;
   private final UserModel myUserModel;
+  private final VcsModificationHistory myVcsModificationHistory;
   private final Map<String, Event> myEventTypes = new HashMap<>();
-  private final Striped<Lock> myLocks = Striped.lazyWeakLock(100);
-  private final Map<Long, Event> myLastEvents =
-    new LinkedHashMap<Long, Event> () {
-      @Override
-      protected boolean removeEldestEntry(Map.Entry<Long, Event> eldest)
-      {
-        return size() > MAX_LAST_EVENTS_TO_REMEMBER;
-      }
-    };
-  private final ConcurrentLinkedQueue<VcsModificationWithRoot> myModificationsToProcess = new ConcurrentLinkedQueue<>();
+  private final Map<String, PublisherTaskConsumer<?>> myTaskConsumers = new HashMap<>();
+  private final KeyedSerialExecutor.QueueingDelay myDirectDispatchLatency = new KeyedSerialExecutor.QueueingDelay();
+  private final KeyedSerialExecutor.QueueingDelay myMultiNodeDispatchLatency = new KeyedSerialExecutor.QueueingDelay();
+  private final OverflowQueue myOverflowQueue = new OverflowQueue();
+  private final PublishingExecutor myPublishingExecutor;
+  private final KeyedSerialExecutor mySerialExecutor;
+  private final BuildEventStates myBuildEventStates = new BuildEventStates();
+  private final PublishingSequences myPublishingSequences = new PublishingSequences();
+  private final PublishingEventsCoalescer myEventsCoalescer = new PublishingEventsCoalescer();
+  private final DrainQueue<QueuedModification> myModificationsToProcess =
+    new DrainQueue<>(() -> TeamCityProperties.getInteger(MODIFICATIONS_QUEUE_CAPACITY_PROPERTY_NAME, 100_000));
+  private final AtomicLong myFilteredModificationsCount = new AtomicLong();
   private final Object myModificationsToProcessLock = new Object();
   private Future<?> myModificationsProcessorFuture = CompletableFuture.completedFuture(null);
   private final ReentrantLock myModificationsProcessorFutureLock = new ReentrantLock();
-  private final ConcurrentMap<String, ValueWithTTL<Boolean>> myBuildTypeCommitStatusPublisherConfiguredCache = new ConcurrentHashMap<>();
+  private final Cache<String, Boolean> myBuildTypeCommitStatusPublisherConfiguredCache =
+    CacheBuilder.newBuilder()
+                .maximumSize(TeamCityProperties.getInteger(CSP_FOR_BUILD_TYPE_CONFIGURATION_CACHE_SIZE_PROPERTY_NAME, 50_000))
+                .recordStats()
+                .build();
+  private final DummyBuildRevisionsCache myDummyBuildRevisionsCache = new DummyBuildRevisionsCache();
+  private final QueuedStatusesTracker myQueuedStatusesTracker = new QueuedStatusesTracker();
+  private final QueuedStatusOwners myQueuedStatusOwners = new QueuedStatusOwners();
+  private final KeyedDebouncer<Long> myCommentedDebouncer;
+  private final Object myQueuedStatusesSweeperLock = new Object();
+  private ScheduledFuture<?> myQueuedStatusesSweeper = null;
+  private final CommitStatusOutbox myOutbox;
+  private ScheduledFuture<?> myOutboxReplayer = null;
+  private ScheduledFuture<?> myPublishingStatsLogger = null;
+  private ScheduledFuture<?> myOnlineNodesRefresher = null;
+  private volatile Set<String> myOnlineNodeIds = null;
+  private final WindowedBatcher<RemovedFromQueueBuild> myRemovedFromQueueBatcher;
+  private final VcsRootUsagesIndex myVcsRootUsagesIndex = new VcsRootUsagesIndex(this::testIfBuildTypeUsingCommitStatusPublisher);
 
   private Consumer<Event> myEventProcessedCallback = null;
 
@@ -100,8 +141,10 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
                                        @NotNull ProjectManager projectManager,
                                        @NotNull TeamCityNodes teamCityNodes,
                                        @NotNull UserModel userModel,
-                                       @NotNull MultiNodeTasks multiNodeTasks) {
-    myPublisherManager = voterManager;
+                                       @NotNull MultiNodeTasks multiNodeTasks,
+                                       @NotNull VcsModificationHistory vcsModificationHistory,
+                                       @NotNull CommitStatusOutbox outbox) {
+    myPublisherRegistry = new PublisherRegistry(voterManager);
     myBuildHistory = buildHistory;
     myBuildsManager = buildsManager;
     myBuildPromotionManager = buildPromotionManager;
@@ -110,77 +153,175 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     myTeamCityNodes = teamCityNodes;
     myMultiNodeTasks = multiNodeTasks;
     myExecutorServices = executorServices;
+    myPublishingExecutor = new PublishingExecutor(executorServices.getLowPriorityExecutorService(), myOverflowQueue);
+    mySerialExecutor = new KeyedSerialExecutor(myPublishingExecutor);
+    myCommentedDebouncer = new KeyedDebouncer<>("Commit Status Publisher build comments", executorServices.getNormalExecutorService(),
+                                                () -> TeamCityProperties.getIntervalMilliseconds(COMMENTED_DEBOUNCE_WINDOW_PROPERTY_NAME, 500));
+    myRemovedFromQueueBatcher = new WindowedBatcher<>("Commit Status Publisher removed from queue builds", executorServices.getNormalExecutorService(),
+                                                      () -> TeamCityProperties.getIntervalMilliseconds(REMOVED_FROM_QUEUE_BATCH_WINDOW_PROPERTY_NAME, 1_000),
+                                                      this::publishRemovedFromQueue);
     myProjectManager = projectManager;
     myUserModel = userModel;
+    myVcsModificationHistory = vcsModificationHistory;
+    myOutbox = outbox;
     myEventTypes.putAll(Arrays.stream(Event.values()).collect(Collectors.toMap(Event::getName, et -> et)));
 
     events.addListener(this);
 
-    myMultiNodeTasks.subscribe(Event.STARTED.getName(), new BuildPublisherTaskConsumer (
+    subscribe(Event.STARTED, new BuildPublisherTaskConsumer (
       build -> new PublishTask() {
         @Override
-        public void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
-          publisher.buildStarted(build, revision);
+        public boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
+          return publisher.buildStarted(build, revision);
         }
       }
     ));
 
-    myMultiNodeTasks.subscribe(Event.FINISHED.getName(), new BuildPublisherTaskConsumer (
+    subscribe(Event.FINISHED, new BuildPublisherTaskConsumer (
        build -> new PublishTask() {
          @Override
-         public void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
-           publisher.buildFinished(build, revision);
+         public boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
+           return publisher.buildFinished(build, revision);
          }
        }
     ));
 
-    myMultiNodeTasks.subscribe(Event.MARKED_AS_SUCCESSFUL.getName(), new BuildPublisherTaskConsumer (
+    subscribe(Event.MARKED_AS_SUCCESSFUL, new BuildPublisherTaskConsumer (
        build -> new PublishTask() {
          @Override
-         public void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
-           publisher.buildMarkedAsSuccessful(build, revision, isBuildInProgress(build));
+         public boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
+           return publisher.buildMarkedAsSuccessful(build, revision, isBuildInProgress(build));
          }
         }
     ));
 
-    myMultiNodeTasks.subscribe(Event.COMMENTED.getName(), new BuildPublisherTaskConsumer (
+    subscribe(Event.COMMENTED, new BuildPublisherTaskConsumer (
       build -> new PublishTask() {
         @Override
-        public void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
+        public boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
           Comment comment = build.getBuildComment();
           if (null == comment)
-            return;
-          publisher.buildCommented(build, revision, comment.getUser(), comment.getComment(), isBuildInProgress(build));
+            return true;
+          return publisher.buildCommented(build, revision, comment.getUser(), comment.getComment(), isBuildInProgress(build));
         }
       }
     ));
 
-    myMultiNodeTasks.subscribe(Event.INTERRUPTED.getName(), new BuildPublisherTaskConsumer (
+    subscribe(Event.INTERRUPTED, new BuildPublisherTaskConsumer (
       build -> new PublishTask() {
         @Override
-        public void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
-          publisher.buildInterrupted(build, revision);
+        public boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
+          return publisher.buildInterrupted(build, revision);
         }
       }
     ));
 
-    myMultiNodeTasks.subscribe(Event.FAILURE_DETECTED.getName(), new BuildPublisherTaskConsumer (
+    subscribe(Event.FAILURE_DETECTED, new BuildPublisherTaskConsumer (
       build -> new PublishTask() {
         @Override
-        public void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
-          publisher.buildFailureDetected(build, revision);
+        public boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException {
+          return publisher.buildFailureDetected(build, revision);
         }
       }
     ));
 
-    myMultiNodeTasks.subscribe(Event.QUEUED.getName(), new QueuedBuildPublisherTaskConsumer(
+    QueuedBuildPublisherTaskConsumer queuedTaskConsumer = new QueuedBuildPublisherTaskConsumer(
       buildPromotion -> new PublishQueuedTask() {
         @Override
-        public void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
-          publisher.buildQueued(buildPromotion, revision, additionalTaskInfo);
+        public boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
+          if (publisher.buildQueued(buildPromotion, revision, additionalTaskInfo)) {
+            trackQueuedStatus(buildPromotion.getId());
+            return true;
+          }
+          return false;
         }
       }
-    ));
+    );
+    subscribe(Event.QUEUED, queuedTaskConsumer);
+    myMultiNodeTasks.subscribe(QUEUED_BATCH_TASK_TYPE, new QueuedBatchTaskConsumer(queuedTaskConsumer));
+  }
+
+  private void subscribe(@NotNull Event event, @NotNull PublisherTaskConsumer<?> consumer) {
+    myTaskConsumers.put(event.getName(), consumer);
+    myMultiNodeTasks.subscribe(event.getName(), consumer);
+  }
+
+  /**
+   * Passes the task directly to its consumer on the publishing executor when there are no other nodes which could process it,
+   * otherwise submits it to {@link MultiNodeTasks}. The tasks of the same build or promotion are passed in the order they are submitted
+   */
+  private void submitTask(@NotNull Event event, @NotNull String identity, long longArg1, @Nullable Long longArg2, @Nullable String stringArg) {
+    PublisherTaskConsumer<?> consumer = myTaskConsumers.get(event.getName());
+    if (consumer != null && isSingleNodeDispatchAvailable()) {
+      mySerialExecutor.submit("dispatch:" + longArg1, myPublishingExecutor.forPriority(PublishingPriority.of(event)),
+                              () -> consumer.process(event, longArg1, longArg2, stringArg, true));
+      return;
+    }
+    myMultiNodeTasks.submit(new MultiNodeTasks.TaskData(event.getName(), identity, longArg1, longArg2, stringArg));
+  }
+
+  private boolean isSingleNodeDispatchAvailable() {
+    if (!TeamCityProperties.getBooleanOrTrue(SINGLE_NODE_DISPATCH_PROPERTY_NAME) || !myServerResponsibility.canManageBuilds()) {
+      return false;
+    }
+    String currentNodeId = CurrentNodeInfo.getNodeId();
+    return getOnlineNodeIds().stream().allMatch(currentNodeId::equals);
+  }
+
+  /**
+   * @return ids of the online nodes, which are refreshed in background rather than requested on every build event
+   */
+  @NotNull
+  private Set<String> getOnlineNodeIds() {
+    Set<String> onlineNodeIds = myOnlineNodeIds;
+    return onlineNodeIds != null ? onlineNodeIds : refreshOnlineNodeIds();
+  }
+
+  @NotNull
+  private Set<String> refreshOnlineNodeIds() {
+    Set<String> onlineNodeIds = myTeamCityNodes.getOnlineNodes().stream().map(TeamCityNode::getId).collect(Collectors.toSet());
+    myOnlineNodeIds = onlineNodeIds;
+    return onlineNodeIds;
+  }
+
+  /**
+   * @return time from submitting a build event to starting its publishing for the events dispatched directly
+   */
+  @NotNull
+  KeyedSerialExecutor.QueueingDelay getDirectDispatchLatency() {
+    return myDirectDispatchLatency;
+  }
+
+  /**
+   * @return time from submitting a build event to starting its publishing for the events dispatched via {@link MultiNodeTasks}
+   */
+  @NotNull
+  KeyedSerialExecutor.QueueingDelay getMultiNodeDispatchLatency() {
+    return myMultiNodeDispatchLatency;
+  }
+
+  /**
+   * Records the time from submitting a task to starting its publishing
+   * @param submittedAt time the task was submitted at, null for the tasks submitted by the nodes which do not pass it
+   */
+  private void recordDispatchLatency(@Nullable Long submittedAt, boolean isDirectDispatch) {
+    if (submittedAt == null) {
+      return;
+    }
+    KeyedSerialExecutor.QueueingDelay latency = isDirectDispatch ? myDirectDispatchLatency : myMultiNodeDispatchLatency;
+    latency.record(Math.max(0, System.currentTimeMillis() - submittedAt));
+  }
+
+  @Nullable
+  private static Long parseSubmitTime(@Nullable String submittedAt) {
+    if (submittedAt == null) {
+      return null;
+    }
+    try {
+      return Long.parseLong(submittedAt);
+    } catch (NumberFormatException e) {
+      return null;
+    }
   }
 
   private Pair<String, User> getCommentWithAuthor(BuildPromotion buildPromotion) {
@@ -232,6 +373,9 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
       return;
     }
 
+    if (myCommentedDebouncer.cancel(build.getBuildId())) {
+      LOG.debug("Event: " + Event.COMMENTED.getName() + " for build " + LogUtil.describe(build) + " is absorbed by " + Event.FINISHED.getName());
+    }
     submitTaskForBuild(Event.FINISHED, build);
   }
 
@@ -240,7 +384,8 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     SBuildType buildType = getBuildType(Event.COMMENTED, build);
     if (isBuildFeatureAbsent(buildType))
       return;
-    submitTaskForBuild(Event.COMMENTED, build);
+    // the status is published with the comment the build has at the moment of publishing, so the comments changed in a row are published once
+    myCommentedDebouncer.schedule(build.getBuildId(), () -> submitTaskForBuild(Event.COMMENTED, build));
   }
 
   @Override
@@ -255,13 +400,27 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
       return;
     }
 
+    if (myCommentedDebouncer.cancel(build.getBuildId())) {
+      LOG.debug("Event: " + Event.COMMENTED.getName() + " for build " + LogUtil.describe(build) + " is absorbed by " + Event.INTERRUPTED.getName());
+    }
     submitTaskForBuild(Event.INTERRUPTED, build);
   }
 
   @Override
   public void changeAdded(@NotNull VcsModification modification, @NotNull VcsRoot root, @Nullable final Collection<SBuildType> buildTypes) {
+    myDummyBuildRevisionsCache.invalidateRoot(root.getId());
     if (TeamCityProperties.getBooleanOrTrue(MODIFICATIONS_PROCESSING_FEATURE_TOGGLE)) {
-      myModificationsToProcess.add(new VcsModificationWithRoot((VcsModificationEx)modification, root));
+      List<VcsRootUsagesIndex.RootUsage> usages = myVcsRootUsagesIndex.getIndexedUsages(root);
+      if (usages != null && usages.isEmpty()) {
+        // no build type with commit status publishing uses the root, queued builds are checked when the modification is processed,
+        // roots which are not indexed yet are indexed there as well, not on the changes collecting thread
+        myFilteredModificationsCount.incrementAndGet();
+        return;
+      }
+      if (!myModificationsToProcess.add(new QueuedModification(root, modification.getId()))) {
+        LOG.debug("Too many modifications are waiting to be processed, modification " + modification.getVersion() + " will not update queued builds statuses");
+        return;
+      }
       initModificationsProcessing();
       synchronized (myModificationsToProcessLock) {
         myModificationsToProcessLock.notifyAll();
@@ -269,31 +428,6 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     }
   }
 
-  private boolean testIfCheckoutRulePass(CheckoutRules checkoutRules, VcsModification modification) {
-    return modification.getChanges().stream()
-                       .map(VcsFileModification::getRelativeFileName)
-                       .anyMatch(checkoutRules::shouldInclude);
-  }
-
-  private boolean testIfCheckoutRulePass(SBuildType buildType, VcsModificationEx modification) {
-    VcsRootInstance vcsRoot;
-    try {
-      vcsRoot = modification.getVcsRoot();
-    } catch (UnsupportedOperationException e) {
-      LOG.debug("Can not get root for modification " + modification.getVersion());
-      return false;
-    }
-    CheckoutRules checkoutRules = buildType.getCheckoutRules(vcsRoot);
-    if (checkoutRules == null) {
-      SVcsRoot parentVcsRoot = vcsRoot.getParent();
-      checkoutRules = buildType.getCheckoutRules(parentVcsRoot);
-      if (checkoutRules == null) {
-        return true;
-      }
-    }
-    return testIfCheckoutRulePass(checkoutRules, modification);
-  }
-
   private void initModificationsProcessing() {
     if (myModificationsProcessorFuture.isDone()) {
       myModificationsProcessorFutureLock.lock();
@@ -317,57 +451,58 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
   }
 
   private boolean testIfBuildTypeUsingCommitStatusPublisher(SBuildType buildType) {
-    ValueWithTTL<Boolean> isCSPEnabled = myBuildTypeCommitStatusPublisherConfiguredCache.getOrDefault(buildType.getInternalId(), OUTDATED_CACHE_VALUE);
-    if (isCSPEnabled.isAlive()) {
-      return isCSPEnabled.getValue();
-    } else {
-      myBuildTypeCommitStatusPublisherConfiguredCache.remove(buildType.getInternalId());
+    String buildTypeId = buildType.getInternalId();
+    Boolean isCSPEnabled = myBuildTypeCommitStatusPublisherConfiguredCache.getIfPresent(buildTypeId);
+    if (isCSPEnabled != null) {
+      return isCSPEnabled;
     }
+    long settingsVersion = mySettingsVersion.get();
     boolean isConfigured = !isBuildFeatureAbsent(buildType);
-    myBuildTypeCommitStatusPublisherConfiguredCache.putIfAbsent(buildType.getInternalId(),
-                                                                new ValueWithTTL<>(isConfigured, System.currentTimeMillis() + TeamCityProperties.getIntervalMilliseconds(CSP_FOR_BUILD_TYPE_CONFIGURATION_FLAG_TTL_PROPERTY_NAME, 5 * 60 * 1000)));
+    myBuildTypeCommitStatusPublisherConfiguredCache.put(buildTypeId, isConfigured);
+    if (settingsVersion != mySettingsVersion.get()) {
+      myBuildTypeCommitStatusPublisherConfiguredCache.asMap().remove(buildTypeId, isConfigured);
+    }
     return isConfigured;
   }
 
+  @Used("tests")
+  long getFilteredModificationsCount() {
+    return myFilteredModificationsCount.get();
+  }
+
+  @Used("tests")
+  long getDroppedModificationsCount() {
+    return myModificationsToProcess.getDroppedCount();
+  }
+
+  @Used("tests")
+  int getIndexedVcsRootsCount() {
+    return myVcsRootUsagesIndex.size();
+  }
+
+  @NotNull
+  CacheStats getEnabledForBuildCacheStats() {
+    return myBuildTypeCommitStatusPublisherConfiguredCache.stats();
+  }
+
   private void processModifications() throws InterruptedException {
     while (TeamCityProperties.getBooleanOrTrue(MODIFICATIONS_PROCESSING_FEATURE_TOGGLE)) {
       if (!myModificationsToProcess.isEmpty()) {
-        waitForDummyPromotionsCacheUpdate();
-        Collection<VcsModificationWithRoot> modifications = new ArrayList<>(myModificationsToProcess);
-        myModificationsToProcess.removeAll(modifications);
-
-        Map<String, VcsModificationEx> modificationsToProcess = new HashMap<>();
-        Set<Long> nonprocessibleRootIds = new HashSet<>();
-        Iterator<VcsModificationWithRoot> i = modifications.iterator();
-        while (i.hasNext()) {
-          VcsModificationWithRoot modificationWithRoot = i.next();
-          VcsRoot root = modificationWithRoot.getRoot();
-          if (nonprocessibleRootIds.contains(root.getId())) {
-            continue;
-          }
-          boolean isRootNonprocessible = true;
-          for (Map.Entry<SBuildType, CheckoutRules> btToRules : ((VcsRootInstanceEx)root).getUsages().entrySet()) {
-            SBuildType buildType = btToRules.getKey();
-            if (!testIfBuildTypeUsingCommitStatusPublisher(buildType)) {
-              continue;
-            }
-            if (!buildType.isInQueue()) {
-              continue;
-            }
-            isRootNonprocessible = false;
-            VcsModificationEx modification = modificationWithRoot.getModification();
-            if (!modificationsToProcess.containsKey(modification.getVersion()) && testIfCheckoutRulePass(btToRules.getValue(), modification)) {
-              i.remove();
-              modificationsToProcess.putIfAbsent(modification.getVersion(), modification);
-              break;
-            }
-          }
-          if (isRootNonprocessible) {
-            nonprocessibleRootIds.add(root.getId());
-          }
+        int batchSize = Math.max(1, TeamCityProperties.getInteger(MODIFICATIONS_PROCESSING_BATCH_SIZE_PROPERTY_NAME, 1_000));
+        List<QueuedModification> queuedModifications;
+        while (!(queuedModifications = myModificationsToProcess.drain(batchSize)).isEmpty()) {
+          List<VcsModificationWithRoot> modifications = loadModifications(queuedModifications);
+          waitForDummyPromotionsCacheUpdate(modifications);
+          // dummy builds could be cached before they got the new revisions
+          modifications.stream().map(modification -> modification.getRoot().getId()).distinct().forEach(myDummyBuildRevisionsCache::invalidateRoot);
+          processModifications(modifications);
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Commit status publishing configured for build type cache: " + getEnabledForBuildCacheStats() +
+                    ", size: " + myBuildTypeCommitStatusPublisherConfiguredCache.size() +
+                    "; modifications filtered out: " + myFilteredModificationsCount.get() + ", dropped on overflow: " + myModificationsToProcess.getDroppedCount() +
+                    "; dummy build revisions cache: " + myDummyBuildRevisionsCache.getStats() + ", size: " + myDummyBuildRevisionsCache.size());
         }
-
-        updateQueuedStatusForModification(modificationsToProcess.values());
       }
 
       if (TeamCityProperties.getBooleanOrTrue(MODIFICATIONS_PROCESSING_FEATURE_TOGGLE) && myModificationsToProcess.isEmpty()) {
@@ -378,39 +513,175 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     }
   }
 
-  private void updateQueuedStatusForModification(@NotNull Collection<VcsModificationEx> modifications) {
+  @NotNull
+  private List<VcsModificationWithRoot> loadModifications(@NotNull List<QueuedModification> queuedModifications) {
+    List<VcsModificationWithRoot> result = new ArrayList<>(queuedModifications.size());
+    for (QueuedModification queuedModification : queuedModifications) {
+      SVcsModification modification = myVcsModificationHistory.findChangeById(queuedModification.getModificationId());
+      if (modification == null) {
+        LOG.debug("Modification with id " + queuedModification.getModificationId() + " is not found, it will not update queued builds statuses");
+        continue;
+      }
+      result.add(new VcsModificationWithRoot((VcsModificationEx)modification, queuedModification.getRoot()));
+    }
+    return result;
+  }
+
+  /**
+   * Modifications are grouped by VCS root, so the build types using the root are evaluated once per root
+   */
+  private void processModifications(@NotNull List<VcsModificationWithRoot> modifications) {
+    Map<Long, List<VcsModificationWithRoot>> modificationsByRoot = groupByRoot(modifications, modification -> modification.getRoot().getId());
+
+    Map<String, VcsModificationWithRoot> modificationsToProcess = new LinkedHashMap<>();
+    for (List<VcsModificationWithRoot> rootModifications : modificationsByRoot.values()) {
+      Collection<CheckoutRulesMatcher> checkoutRules = getCheckoutRulesOfQueuedBuildTypes(rootModifications.get(0).getRoot());
+      if (checkoutRules.isEmpty()) {
+        continue;
+      }
+      for (VcsModificationWithRoot modificationWithRoot : rootModifications) {
+        String version = modificationWithRoot.getModification().getVersion();
+        if (modificationsToProcess.containsKey(version)) {
+          continue;
+        }
+        List<String> changedFiles = modificationWithRoot.getChangedFiles();
+        if (checkoutRules.stream().anyMatch(rules -> rules.matchesAny(changedFiles))) {
+          modificationsToProcess.put(version, modificationWithRoot);
+        }
+      }
+    }
+    updateQueuedStatusForModification(modificationsToProcess.values());
+  }
+
+  /**
+   * @return modifications grouped by the id of their VCS root, in the order of the first modification of every root
+   */
+  @NotNull
+  static <T> Map<Long, List<T>> groupByRoot(@NotNull List<T> modifications, @NotNull ToLongFunction<T> rootId) {
+    return modifications.stream().collect(Collectors.groupingBy(rootId::applyAsLong, LinkedHashMap::new, Collectors.toList()));
+  }
+
+  /**
+   * @return distinct checkout rules of the build types which use the root, have commit status publishing configured and are in the queue
+   */
+  @NotNull
+  private Collection<CheckoutRulesMatcher> getCheckoutRulesOfQueuedBuildTypes(@NotNull VcsRoot root) {
+    Map<String, CheckoutRulesMatcher> result = new HashMap<>();
+    for (VcsRootUsagesIndex.RootUsage usage : myVcsRootUsagesIndex.getUsages(root)) {
+      if (usage.getBuildType().isInQueue()) {
+        result.putIfAbsent(usage.getCheckoutRules().getAsString(), usage.getCheckoutRulesMatcher());
+      }
+    }
+    return result.values();
+  }
+
+  /**
+   * @return checkout rules of the root by the internal ids of the build types which use it and have commit status publishing configured
+   */
+  @NotNull
+  private Map<String, CheckoutRulesMatcher> getCheckoutRulesOfBuildTypes(@NotNull VcsRoot root) {
+    Map<String, CheckoutRulesMatcher> result = new HashMap<>();
+    for (VcsRootUsagesIndex.RootUsage usage : myVcsRootUsagesIndex.getUsages(root)) {
+      result.putIfAbsent(usage.getBuildType().getInternalId(), usage.getCheckoutRulesMatcher());
+    }
+    return result;
+  }
+
+  private void updateQueuedStatusForModification(@NotNull Collection<VcsModificationWithRoot> modifications) {
     if (modifications.isEmpty()) {
       return;
     }
-    Set<String> relatedBuildTypeIds = modifications.stream()
-      .map(modification -> modification.getRelatedConfigurationIds(false))
-      .flatMap(List::stream)
-      .collect(Collectors.toSet());
-    Collection<SBuildType> relatedBuildTypes = myProjectManager.findBuildTypes(relatedBuildTypeIds);
-
-    Map<String, SQueuedBuild> buildsToPublishInfoFor = new HashMap<>();
-    for (SBuildType buildType : relatedBuildTypes) {
-      List<SQueuedBuild> queuedBuildsOfType = buildType.getQueuedBuilds(null);
-      for (SQueuedBuild queuedBuild : queuedBuildsOfType) {
-        for (VcsModificationEx modification : modifications) {
-          if(modification.isRelatedTo(buildType) && testIfCheckoutRulePass(buildType, modification)) {
-            buildsToPublishInfoFor.putIfAbsent(queuedBuild.getItemId(), queuedBuild);
-          }
+    Map<Long, Map<String, CheckoutRulesMatcher>> checkoutRulesByRoot = new HashMap<>();
+    List<SBuildType> affectedBuildTypes = ModificationsJoin.<SBuildType, VcsModificationWithRoot>findAffectedBuildTypes(
+      modifications,
+      modification -> modification.getModification().getRelatedConfigurationIds(false),
+      myProjectManager::findBuildTypes,
+      SBuildType::getInternalId,
+      (buildType, modification) -> {
+        if (!modification.getModification().isRelatedTo(buildType)) {
+          return false;
         }
+        VcsRoot root = modification.getRoot();
+        CheckoutRulesMatcher checkoutRules = checkoutRulesByRoot.computeIfAbsent(root.getId(), id -> getCheckoutRulesOfBuildTypes(root)).get(buildType.getInternalId());
+        // build types without usage in the index have no commit status publishing configured for the root
+        return checkoutRules != null && checkoutRules.matchesAny(modification.getChangedFiles());
+      });
+
+    Map<String, SQueuedBuild> buildsToPublishInfoFor = new LinkedHashMap<>();
+    for (SBuildType buildType : affectedBuildTypes) {
+      for (SQueuedBuild queuedBuild : buildType.getQueuedBuilds(null)) {
+        buildsToPublishInfoFor.putIfAbsent(queuedBuild.getItemId(), queuedBuild);
       }
     }
-    buildsToPublishInfoFor.values().forEach(queuedBuild -> buildTypeAddedToQueue(queuedBuild));
+    List<Long> promotionIds = buildsToPublishInfoFor.values().stream()
+                                                    .map(this::getPromotionIdToPublishQueued)
+                                                    .filter(Objects::nonNull)
+                                                    .collect(Collectors.toList());
+    submitQueuedTasks(promotionIds);
   }
 
-  public void waitForDummyPromotionsCacheUpdate() {
+  /**
+   * Waits until the dummy builds of the queued builds affected by the modifications contain their revisions,
+   * but not longer than the expected refresh time of the promotions cache
+   */
+  private void waitForDummyPromotionsCacheUpdate(@NotNull List<VcsModificationWithRoot> modifications) {
+    long timeout = TeamCityProperties.getIntervalMilliseconds(EXPECTED_PROMOTIONS_CACHE_REFRESH_TIME_PROPERTY_NAME, 5_000);
+    if (timeout <= 0) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    Map<Long, List<VcsModificationWithRoot>> notUpdatedRoots = groupByRoot(modifications, modification -> modification.getRoot().getId());
     try {
-      Thread.sleep(TeamCityProperties.getIntervalMilliseconds(EXPECTED_PROMOTIONS_CACHE_REFRESH_TIME_PROPERTY_NAME, 5_000));
+      boolean isUpdated = BackoffPolling.await(() -> {
+        // dummy builds are shared by the roots of a build type, but may change between the rounds
+        Map<String, List<BuildRevision>> dummyBuildRevisions = new HashMap<>();
+        notUpdatedRoots.values().removeIf(rootModifications -> isDummyPromotionsCacheUpdated(rootModifications, dummyBuildRevisions));
+        return notUpdatedRoots.isEmpty();
+      }, timeout, TeamCityProperties.getIntervalMilliseconds(PROMOTIONS_CACHE_POLL_INTERVAL_PROPERTY_NAME, 50));
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Waited " + (System.currentTimeMillis() - start) + "ms for dummy promotions cache to " +
+                  (isUpdated ? "contain " + modifications.size() + " new modifications" : "update"));
+      }
     } catch (InterruptedException e) {
       LOG.info("Waiting for dummy promomotions cache to update was interrupted", e);
       Thread.currentThread().interrupt();
     }
   }
 
+  /**
+   * @param rootModifications   modifications of the same VCS root
+   * @param dummyBuildRevisions revisions of the dummy builds computed during the current poll round, by build type and branch
+   * @return true if the dummy build of some queued build using the root already has a revision of one of the modifications,
+   * or if no queued build can be affected by the modifications
+   */
+  private boolean isDummyPromotionsCacheUpdated(@NotNull List<VcsModificationWithRoot> rootModifications, @NotNull Map<String, List<BuildRevision>> dummyBuildRevisions) {
+    VcsRoot root = rootModifications.get(0).getRoot();
+    Set<String> versions = rootModifications.stream().map(modification -> modification.getModification().getVersion()).collect(Collectors.toSet());
+    boolean hasQueuedBuilds = false;
+    for (VcsRootUsagesIndex.RootUsage usage : myVcsRootUsagesIndex.getUsages(root)) {
+      SBuildType buildType = usage.getBuildType();
+      if (!buildType.isInQueue()) {
+        continue;
+      }
+      Set<String> branchNames = new HashSet<>();
+      for (SQueuedBuild queuedBuild : buildType.getQueuedBuilds(null)) {
+        hasQueuedBuilds = true;
+        String branchName = getBranchName(queuedBuild.getBuildPromotion());
+        if (!branchNames.add(branchName)) {
+          continue;
+        }
+        List<BuildRevision> revisions = dummyBuildRevisions.computeIfAbsent(buildType.getInternalId() + ":" + branchName,
+                                                                            key -> ((BuildTypeEx)buildType).getBranch(branchName).getDummyBuild().getRevisions());
+        for (BuildRevision revision : revisions) {
+          if (revision.getRoot().getId() == root.getId() && versions.contains(revision.getRevision())) {
+            return true;
+          }
+        }
+      }
+    }
+    return !hasQueuedBuilds;
+  }
+
   @Override
   public void buildChangedStatus(@NotNull final SRunningBuild build, Status oldStatus, Status newStatus) {
     if (oldStatus.isFailed() || !newStatus.isFailed()) // we are supposed to report failures only
@@ -437,17 +708,40 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
 
   @Override
   public void buildTypeAddedToQueue(@NotNull final SQueuedBuild build) {
-    if (isQueueDisabled()) return;
+    Long promotionId = getPromotionIdToPublishQueued(build);
+    if (promotionId != null) {
+      submitQueuedTasks(Collections.singletonList(promotionId));
+    }
+  }
+
+  @Nullable
+  private Long getPromotionIdToPublishQueued(@NotNull SQueuedBuild build) {
+    if (isQueueDisabled()) return null;
 
     SBuildType buildType = getBuildType(Event.QUEUED, build);
     if (isBuildFeatureAbsent(buildType))
-      return;
+      return null;
 
     BuildPromotion buildPromotion = build.getBuildPromotion();
-    if (isCreatedOnOtherNode(buildPromotion)) return;
+    if (isCreatedOnOtherNode(buildPromotion)) return null;
+
+    return buildPromotion.getId();
+  }
 
-    long promotionId = buildPromotion.getId();
-    myMultiNodeTasks.submit(new MultiNodeTasks.TaskData(Event.QUEUED.getName(), Event.QUEUED.getName() + ":" + promotionId, promotionId, null, DefaultStatusMessages.BUILD_QUEUED));
+  /**
+   * Submits a single task for every promotion if there are few of them or they can be dispatched directly,
+   * otherwise packs them into the batch tasks, which are expanded by the consumer
+   */
+  private void submitQueuedTasks(@NotNull List<Long> promotionIds) {
+    if (promotionIds.size() == 1 || isSingleNodeDispatchAvailable()) {
+      long submittedAt = System.currentTimeMillis();
+      promotionIds.forEach(promotionId -> submitTask(Event.QUEUED, Event.QUEUED.getName() + ":" + promotionId, promotionId, submittedAt, DefaultStatusMessages.BUILD_QUEUED));
+      return;
+    }
+    int batchSize = TeamCityProperties.getInteger(QUEUED_TASKS_BATCH_SIZE_PROPERTY_NAME, 100);
+    for (String batch : QueuedTasksBatch.encode(promotionIds, batchSize)) {
+      myMultiNodeTasks.submit(new MultiNodeTasks.TaskData(QUEUED_BATCH_TASK_TYPE, QUEUED_BATCH_TASK_TYPE + ":" + QueuedTasksBatch.getIdentity(batch), System.currentTimeMillis(), null, batch));
+    }
   }
 
   public boolean isQueueDisabled() {
@@ -463,6 +757,7 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
 
   @Override
   public void buildRemovedFromQueue(@NotNull final SQueuedBuild build, final User user, final String comment) {
+    untrackQueuedStatus(build.getBuildPromotion().getId());
     if (isQueueDisabled()) return;
 
     SBuildType buildType = getBuildType(Event.REMOVED_FROM_QUEUE, build);
@@ -476,9 +771,43 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
 
     if (!canNodeProcessRemovedFromQueue(build.getBuildPromotion())) return;
 
-    runAsync(() -> {
-      proccessRemovedFromQueueBuild(build, user, comment);
-    }, null);
+    myRemovedFromQueueBatcher.add(new RemovedFromQueueBuild(build, user, comment));
+  }
+
+  /**
+   * Publishes the statuses of the builds removed from the queue within a short time window. When several of them would publish
+   * a status for the same build type, feature and revision, only the one removed last does, so a cleared queue results in a single
+   * status lookup and at most one status update per commit status context.
+   */
+  private void publishRemovedFromQueue(@NotNull List<RemovedFromQueueBuild> removedBuilds) {
+    Map<String, Long> publishingPromotions = new HashMap<>();
+    if (removedBuilds.size() > 1) {
+      for (int i = removedBuilds.size() - 1; i >= 0; i--) {
+        BuildPromotion buildPromotion = removedBuilds.get(i).getBuild().getBuildPromotion();
+        SBuildType buildType = buildPromotion.getBuildType();
+        if (buildType == null) {
+          continue;
+        }
+        for (CommitStatusPublisher publisher : getPublishers(buildType).values()) {
+          if (!publisher.isEventSupported(Event.REMOVED_FROM_QUEUE)) {
+            continue;
+          }
+          for (BuildRevision revision : getQueuedBuildRevisionForVote(buildType, publisher, buildPromotion)) {
+            publishingPromotions.putIfAbsent(getPublishingKey(buildType, publisher, revision), buildPromotion.getId());
+          }
+        }
+      }
+    }
+    for (RemovedFromQueueBuild removedBuild : removedBuilds) {
+      SQueuedBuild build = removedBuild.getBuild();
+      long promotionId = build.getBuildPromotion().getId();
+      Predicate<String> isPublishedByBuild = key -> {
+        Long publishingPromotionId = publishingPromotions.get(key);
+        return publishingPromotionId == null || publishingPromotionId == promotionId;
+      };
+      runSerially(getPromotionKey(build.getBuildPromotion()), Event.REMOVED_FROM_QUEUE,
+                  () -> proccessRemovedFromQueueBuild(build, removedBuild.getUser(), removedBuild.getComment(), isPublishedByBuild), null);
+    }
   }
 
   private boolean canNodeProcessRemovedFromQueue(BuildPromotion buildPromotion) {
@@ -486,17 +815,276 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     String currentNodeId = CurrentNodeInfo.getNodeId();
     if (creatorNodeId.equals(currentNodeId)) return true;  // allowed to process on node, where promotion was cereated
 
-    List<TeamCityNode> onlineNodes = myTeamCityNodes.getOnlineNodes();
-    boolean isCreatorNodeOnline = onlineNodes.stream()
-                                             .map(TeamCityNode::getId)
-                                             .anyMatch(nodeId -> nodeId.equals(creatorNodeId));
+    boolean isCreatorNodeOnline = getOnlineNodeIds().contains(creatorNodeId);
     if (isCreatorNodeOnline) return false; // should process on online node, where promotion was created (not this one)
 
     return CurrentNodeInfo.isMainNode(); // node that created promotion is offline, should be processes on main node
   }
 
+  /**
+   * Tracks the published queued status in memory for the sweeper and in the outbox, so it is tracked again after the server restart
+   */
+  private void trackQueuedStatus(long promotionId) {
+    long publishTime = System.currentTimeMillis();
+    if (myQueuedStatusesTracker.track(promotionId, publishTime) && myOutbox.isEnabled()) {
+      myOutbox.recordQueuedStatus(promotionId, publishTime);
+    }
+    startQueuedStatusesSweeperIfNeeded();
+  }
+
+  private void untrackQueuedStatus(long promotionId) {
+    if (myQueuedStatusesTracker.untrack(promotionId) && myOutbox.isEnabled()) {
+      myOutbox.forgetQueuedStatus(promotionId);
+    }
+  }
+
+  /**
+   * Tracks again the queued statuses published before the server restart, so the sweeper replaces the ones
+   * of the builds which have left the queue while the server was down
+   */
+  void restoreQueuedStatuses() {
+    Map<Long, Long> queuedStatuses = myOutbox.getQueuedStatuses();
+    if (queuedStatuses.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<Long, Long> queuedStatus : queuedStatuses.entrySet()) {
+      long promotionId = queuedStatus.getKey();
+      if (!myQueuedStatusesTracker.track(promotionId, queuedStatus.getValue()) && !myQueuedStatusesTracker.isTracked(promotionId)) {
+        // the tracker is full, the status can not be replaced anyway
+        myOutbox.forgetQueuedStatus(promotionId);
+      }
+    }
+    startQueuedStatusesSweeperIfNeeded();
+  }
+
+  private void startQueuedStatusesSweeperIfNeeded() {
+    synchronized (myQueuedStatusesSweeperLock) {
+      if (myQueuedStatusesSweeper != null) {
+        return;
+      }
+      long interval = Math.max(1_000, TeamCityProperties.getIntervalMilliseconds(QUEUED_STATUSES_SWEEP_INTERVAL_PROPERTY_NAME, 5 * 60 * 1000));
+      myQueuedStatusesSweeper = myExecutorServices.getNormalExecutorService().scheduleWithFixedDelay(() -> {
+        try {
+          sweepQueuedStatuses();
+        } catch (Throwable t) {
+          LOG.warnAndDebugDetails("Failed to check published queued statuses", t);
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Replaces the queued statuses of the promotions which have left the queue without the removal event being processed,
+   * e.g. when the node processing it was restarted. At most a configured number of statuses is replaced at a time.
+   */
+  void sweepQueuedStatuses() {
+    if (isQueueDisabled()) return;
+    long minAge = TeamCityProperties.getIntervalMilliseconds(QUEUED_STATUSES_MIN_AGE_PROPERTY_NAME, 10 * 60 * 1000);
+    int batchSize = TeamCityProperties.getInteger(QUEUED_STATUSES_SWEEP_BATCH_SIZE_PROPERTY_NAME, 50);
+    List<BuildPromotion> expired = new ArrayList<>();
+    for (Long promotionId : myQueuedStatusesTracker.getPublishedBefore(System.currentTimeMillis() - minAge)) {
+      if (expired.size() >= batchSize) {
+        break;
+      }
+      BuildPromotion promotion = myBuildPromotionManager.findPromotionById(promotionId);
+      if (promotion == null) {
+        LOG.debug("Build promotion with id " + promotionId + " is not found, its queued status can not be replaced");
+        untrackQueuedStatus(promotionId);
+        continue;
+      }
+      if (promotion.getQueuedBuild() != null) {
+        continue;
+      }
+      untrackQueuedStatus(promotionId);
+      if (promotion.getAssociatedBuild() != null) {
+        // statuses of the started build have replaced the queued ones
+        continue;
+      }
+      expired.add(promotion);
+    }
+    if (expired.isEmpty()) {
+      return;
+    }
+    LOG.info("Replacing queued statuses of " + expired.size() + " builds which have left the queue without the removal being published");
+    for (BuildPromotion promotion : expired) {
+      runSerially(getPromotionKey(promotion), Event.REMOVED_FROM_QUEUE, () -> proccessExpiredQueuedStatus(promotion), null);
+    }
+  }
+
+  @NotNull
+  private CompletableFuture<Void> proccessExpiredQueuedStatus(@NotNull BuildPromotion buildPromotion) {
+    AdditionalTaskInfo additionalTaskInfo = buildAdditionalRemovedFromQueueInfo(buildPromotion, null, null);
+    PublishingProcessor publishingProcessor = new PublishingProcessor() {
+      @Override
+      public void publish(Event event, BuildRevision revision, CommitStatusPublisher publisher) {
+        if (!publisher.isAvailable(buildPromotion))
+          return;
+        SBuildType buildType = buildPromotion.getBuildType();
+        if (buildType != null && isQueuedStatusStillOwned(buildType, publisher, revision, buildPromotion)) {
+          return;
+        }
+        try {
+          if (publishReplacingStatus(publisher, revision, additionalTaskInfo)) {
+            return;
+          }
+          if (isCurrentRevisionSuitable(event, buildPromotion, revision, publisher)) {
+            publisher.buildRemovedFromQueue(buildPromotion, revision, additionalTaskInfo);
+          }
+        } catch (PublisherException e) {
+          LOG.warn("Cannot replace queued build status in VCS for " + publisher.getBuildType() + ", commit: " + revision.getRevision(), e);
+        }
+      }
+
+      @Override
+      public Collection<BuildRevision> getRevisions(BuildType buildType, CommitStatusPublisher publisher) {
+        return getQueuedBuildRevisionForVote(buildType, publisher, buildPromotion);
+      }
+    };
+    return proccessPublishing(Event.REMOVED_FROM_QUEUE, buildPromotion, publishingProcessor);
+  }
+
+  @Used("tests")
+  @NotNull
+  QueuedStatusesTracker getQueuedStatusesTracker() {
+    return myQueuedStatusesTracker;
+  }
+
+  @Used("tests")
+  @NotNull
+  QueuedStatusOwners getQueuedStatusOwners() {
+    return myQueuedStatusOwners;
+  }
+
+  @Override
+  public void serverStartup() {
+    refreshOnlineNodeIds();
+    if (TeamCityProperties.getBooleanOrTrue(MODIFICATIONS_PROCESSING_FEATURE_TOGGLE)) {
+      myExecutorServices.getLowPriorityExecutorService().execute(() -> {
+        try {
+          myVcsRootUsagesIndex.warmUp(myProjectManager.getActiveBuildTypes());
+        } catch (Throwable t) {
+          LOG.warnAndDebugDetails("Failed to index VCS roots used by build types with commit status publishing", t);
+        }
+      });
+    }
+    long nodesRefreshInterval = Math.max(1_000, TeamCityProperties.getIntervalMilliseconds(ONLINE_NODES_REFRESH_INTERVAL_PROPERTY_NAME, 10 * 1000));
+    synchronized (myQueuedStatusesSweeperLock) {
+      myOnlineNodesRefresher = myExecutorServices.getNormalExecutorService().scheduleWithFixedDelay(() -> {
+        try {
+          refreshOnlineNodeIds();
+        } catch (Throwable t) {
+          LOG.debug("Failed to refresh online nodes", t);
+        }
+      }, nodesRefreshInterval, nodesRefreshInterval, TimeUnit.MILLISECONDS);
+    }
+    long statsInterval = TeamCityProperties.getIntervalMilliseconds(PUBLISHING_STATS_LOG_INTERVAL_PROPERTY_NAME, 5 * 60 * 1000);
+    if (statsInterval > 0) {
+      synchronized (myQueuedStatusesSweeperLock) {
+        myPublishingStatsLogger = myExecutorServices.getNormalExecutorService().scheduleWithFixedDelay(this::logPublishingStats, statsInterval, statsInterval, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (!myOutbox.isEnabled()) {
+      return;
+    }
+    restoreQueuedStatuses();
+    synchronized (myQueuedStatusesSweeperLock) {
+      long interval = Math.max(1_000, TeamCityProperties.getIntervalMilliseconds(OUTBOX_REPLAY_INTERVAL_PROPERTY_NAME, 5 * 60 * 1000));
+      myOutboxReplayer = myExecutorServices.getNormalExecutorService().scheduleWithFixedDelay(() -> {
+        try {
+          replayOutbox();
+        } catch (Throwable t) {
+          LOG.warnAndDebugDetails("Failed to republish commit statuses from the outbox", t);
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Publishes again the statuses which have not been acknowledged in the outbox, i.e. the ones which have failed to be published
+   * because of a VCS host outage or have been interrupted by a server restart. The build events are republished for the current state
+   * of the build, so a build finished in the meantime gets its final status. At most a configured number of statuses is republished at a time.
+   */
+  void replayOutbox() {
+    long now = System.currentTimeMillis();
+    long minAge = TeamCityProperties.getIntervalMilliseconds(OUTBOX_REPLAY_MIN_AGE_PROPERTY_NAME, 5 * 60 * 1000);
+    long maxAge = TeamCityProperties.getIntervalMilliseconds(OUTBOX_MAX_AGE_PROPERTY_NAME, 24 * 60 * 60 * 1000);
+    int batchSize = TeamCityProperties.getInteger(OUTBOX_REPLAY_BATCH_SIZE_PROPERTY_NAME, 100);
+    Set<String> submitted = new HashSet<>();
+    List<Long> queuedPromotionIds = new ArrayList<>();
+    for (CommitStatusOutbox.Entry entry : myOutbox.getPendingBefore(now - minAge, batchSize)) {
+      if (entry.getTime() < now - maxAge) {
+        LOG.debug("Event: " + entry.getEvent().getName() + ", build promotion id " + entry.getPromotionId() + ": status is too old to be republished");
+        myOutbox.acknowledge(entry.getPromotionId(), entry.getKey(), entry.getEvent());
+        continue;
+      }
+      BuildPromotion promotion = myBuildPromotionManager.findPromotionById(entry.getPromotionId());
+      if (promotion == null) {
+        myOutbox.forget(entry.getPromotionId());
+        continue;
+      }
+      if (entry.getEvent() == Event.QUEUED) {
+        if (promotion.getQueuedBuild() == null) {
+          // the queued status has been replaced by the started build or the build has left the queue
+          myOutbox.acknowledge(entry.getPromotionId(), entry.getKey(), entry.getEvent());
+        } else if (submitted.add(entry.getPromotionId() + ":" + Event.QUEUED)) {
+          queuedPromotionIds.add(entry.getPromotionId());
+        }
+        continue;
+      }
+      SBuild build = promotion.getAssociatedBuild();
+      if (build == null) {
+        myOutbox.forget(entry.getPromotionId());
+        continue;
+      }
+      Event event = getEventToRepublish(entry.getEvent(), build);
+      if (event != entry.getEvent()) {
+        myOutbox.acknowledge(entry.getPromotionId(), entry.getKey(), entry.getEvent());
+      }
+      if (submitted.add(entry.getPromotionId() + ":" + event)) {
+        submitTaskForBuild(event, build);
+      }
+    }
+    if (!submitted.isEmpty()) {
+      LOG.info("Republishing " + submitted.size() + " commit statuses which have not been published");
+    }
+    if (!queuedPromotionIds.isEmpty()) {
+      submitQueuedTasks(queuedPromotionIds);
+    }
+  }
+
+  @NotNull
+  private static Event getEventToRepublish(@NotNull Event event, @NotNull SBuild build) {
+    if (build.isFinished() && (event == Event.STARTED || event == Event.FAILURE_DETECTED || event == Event.COMMENTED)) {
+      return Event.FINISHED;
+    }
+    return event;
+  }
+
+  @Override
+  public void serverShutdown() {
+    synchronized (myQueuedStatusesSweeperLock) {
+      if (myQueuedStatusesSweeper != null) {
+        myQueuedStatusesSweeper.cancel(false);
+      }
+      if (myOutboxReplayer != null) {
+        myOutboxReplayer.cancel(false);
+      }
+      if (myPublishingStatsLogger != null) {
+        myPublishingStatsLogger.cancel(false);
+      }
+      if (myOnlineNodesRefresher != null) {
+        myOnlineNodesRefresher.cancel(false);
+      }
+    }
+    myRemovedFromQueueBatcher.shutdown();
+    myCommentedDebouncer.shutdown();
+    myPublishingExecutor.shutdown();
+    myOutbox.close();
+  }
+
   @Override
   public void buildTypePersisted(@NotNull SBuildType buildType) {
+    settingsChanged(buildType);
     if (!myProblems.hasProblems(buildType)) {
       return;
     }
@@ -505,27 +1093,91 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
 
   @Override
   public void projectPersisted(@NotNull String projectId) {
+    projectSettingsChanged(projectId);
     clearObsoleteProblemsForProject(projectId);
   }
 
   @Override
   public void projectRestored(@NotNull String projectId) {
+    projectSettingsChanged(projectId);
     clearObsoleteProblemsForProject(projectId);
   }
 
+  @Override
+  public void projectMoved(@NotNull SProject project, @NotNull SProject originalParentProject) {
+    project.getBuildTypes().forEach(this::settingsChanged);
+  }
+
+  @Override
+  public void vcsRootUpdated(@NotNull SVcsRoot oldVcsRoot, @NotNull SVcsRoot newVcsRoot) {
+    oldVcsRoot.getUsagesInConfigurations().forEach(this::settingsChanged);
+    newVcsRoot.getUsagesInConfigurations().forEach(this::settingsChanged);
+  }
+
+  @Override
+  public void vcsRootRemoved(@NotNull SVcsRoot root) {
+    root.getUsagesInConfigurations().forEach(this::settingsChanged);
+  }
+
   @Override
   public void buildTypeMoved(@NotNull SBuildType buildType, @NotNull SProject original) {
+    settingsChanged(buildType);
     if (!myProblems.hasProblems(buildType)) {
       return;
     }
     clearObsoleteProblems(buildType);
   }
 
+  @Override
+  public void buildTypeUnregistered(@NotNull SBuildType buildType) {
+    settingsChanged(buildType);
+  }
+
   @Override
   public void buildTypeTemplatePersisted(@NotNull BuildTypeTemplate buildTemplate) {
+    getTemplateUsages(buildTemplate).forEach(this::settingsChanged);
     clearObsoleteProblems(buildTemplate);
   }
 
+  private void projectSettingsChanged(@NotNull String projectId) {
+    SProject project = myProjectManager.findProjectById(projectId);
+    if (project == null) {
+      return;
+    }
+    project.getBuildTypes().forEach(this::settingsChanged);
+  }
+
+  private void settingsChanged(@NotNull SBuildType buildType) {
+    mySettingsVersion.incrementAndGet();
+    myPublisherRegistry.invalidate(buildType);
+    myPublishingSettingsSnapshots.remove(buildType.getInternalId());
+    myBuildTypeCommitStatusPublisherConfiguredCache.invalidate(buildType.getInternalId());
+    myVcsRootUsagesIndex.invalidate(buildType);
+    myDummyBuildRevisionsCache.invalidateBuildType(buildType.getInternalId());
+  }
+
+  @NotNull
+  private PublishingSettingsSnapshot getPublishingSettingsSnapshot(@NotNull SBuildType buildType) {
+    String buildTypeId = buildType.getInternalId();
+    PublishingSettingsSnapshot snapshot = myPublishingSettingsSnapshots.get(buildTypeId);
+    if (snapshot != null && snapshot.isCreatedFor(buildType)) {
+      return snapshot;
+    }
+    long settingsVersion = mySettingsVersion.get();
+    snapshot = PublishingSettingsSnapshot.create(buildType, !isBuildFeatureAbsent(buildType), getPublishers(buildType));
+    myPublishingSettingsSnapshots.put(buildTypeId, snapshot);
+    if (settingsVersion != mySettingsVersion.get()) {
+      // settings have changed while the snapshot was being created, it may be outdated already
+      myPublishingSettingsSnapshots.remove(buildTypeId, snapshot);
+    }
+    return snapshot;
+  }
+
+  @Used("tests")
+  long getCollapsedEventsCount() {
+    return myEventsCoalescer.getCollapsedEventsCount();
+  }
+
   @Used("tests")
   void setEventProcessedCallback(@Nullable Consumer<Event> callback) {
     myEventProcessedCallback = callback;
@@ -559,7 +1211,9 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     }
 
     long buildId = build.getBuildId();
-    myMultiNodeTasks.submit(new MultiNodeTasks.TaskData(event.getName(), event.getName() + ":" + buildId, buildId, null, null));
+    BuildPromotion promotion = build.getBuildPromotion();
+    long sequence = myPublishingSequences.next(promotion.getId());
+    submitTask(event, event.getName() + ":" + buildId, buildId, sequence, String.valueOf(System.currentTimeMillis()));
   }
 
   private boolean isCurrentRevisionSuitableForRemovedBuild(Event event, SQueuedBuild removedBuild, BuildRevision revision, CommitStatusPublisher publisher) throws PublisherException {
@@ -572,7 +1226,8 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     return revisionStatus == null || revisionStatus.isEventAllowed(event);
   }
 
-  private void proccessRemovedFromQueueBuild(SQueuedBuild queuedBuild, User user, String comment) {
+  @NotNull
+  private CompletableFuture<Void> proccessRemovedFromQueueBuild(SQueuedBuild queuedBuild, User user, String comment, Predicate<String> isPublishedByBuild) {
     BuildPromotion buildPromotion = queuedBuild.getBuildPromotion();
     AdditionalTaskInfo additionalTaskInfo = buildAdditionalRemovedFromQueueInfo(buildPromotion, comment, user);
 
@@ -581,9 +1236,18 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
       public void publish(Event event, BuildRevision revision, CommitStatusPublisher publisher) {
         if (!publisher.isAvailable(buildPromotion))
           return;
+        SBuildType buildType = buildPromotion.getBuildType();
+        if (buildType != null && isQueuedStatusStillOwned(buildType, publisher, revision, buildPromotion)) {
+          return;
+        }
+        if (buildType != null && !isPublishedByBuild.test(getPublishingKey(buildType, publisher, revision))) {
+          LOG.debug("Event: " + event.getName() + ", build promotion " + LogUtil.describe(buildPromotion) + ", publisher " + publisher +
+                    ": status for revision " + revision.getRevision() + " is published for a build removed from the queue later");
+          return;
+        }
         try {
-          boolean isReplacedStatusPublished = publishReplacingStatus(publisher, revision, additionalTaskInfo);
-          if (isReplacedStatusPublished) {
+          boolean isReplaced = publishReplacingStatus(publisher, revision, additionalTaskInfo);
+          if (isReplaced) {
             return;
           }
           if (isCurrentRevisionSuitableForRemovedBuild(event, queuedBuild, revision, publisher)) {
@@ -599,36 +1263,60 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
         return getQueuedBuildRevisionForVote(buildType, publisher, buildPromotion);
       }
     };
-    proccessPublishing(Event.REMOVED_FROM_QUEUE, buildPromotion, publishingProcessor);
+    return proccessPublishing(Event.REMOVED_FROM_QUEUE, buildPromotion, publishingProcessor);
   }
 
+  /**
+   * Publishes the status of the build replacing the removed one. The outcome of publishing is kept in the outbox,
+   * so a failed status is republished for the replacing build later.
+   * @return true if the removed build is replaced by a queued or a running build, so the removal status must not be published
+   */
   private boolean publishReplacingStatus(CommitStatusPublisher publisher, BuildRevision revision, AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
     BuildPromotion replacingPromotion = additionalTaskInfo.getReplacingPromotion();
     if (replacingPromotion == null) {
       return false;
     }
     SQueuedBuild replacingQueuedBuild = replacingPromotion.getQueuedBuild();
-    if (replacingQueuedBuild != null) {
-      return publisher.buildQueued(replacingPromotion, revision, new AdditionalTaskInfo(DefaultStatusMessages.BUILD_QUEUED, additionalTaskInfo.getCommentAuthor()));
-    }
     SBuild replacingBuild = replacingPromotion.getAssociatedBuild();
-    if (replacingBuild == null) {
+    if (replacingQueuedBuild == null && replacingBuild == null) {
       return false;
     }
-    if (replacingBuild.isFinished()) {
-      return publisher.buildFinished(replacingBuild, revision);
+    Event event = replacingQueuedBuild != null ? Event.QUEUED : replacingBuild.isFinished() ? Event.FINISHED : Event.STARTED;
+    String outboxKey = getSequenceKey(publisher, revision);
+    boolean isRecorded = false;
+    if (myOutbox.isEnabled()) {
+      myOutbox.record(replacingPromotion.getId(), outboxKey, event);
+      isRecorded = true;
+    }
+    boolean isPublished;
+    if (replacingQueuedBuild != null) {
+      isPublished = publisher.buildQueued(replacingPromotion, revision, new AdditionalTaskInfo(DefaultStatusMessages.BUILD_QUEUED, additionalTaskInfo.getCommentAuthor()));
+    } else if (replacingBuild.isFinished()) {
+      isPublished = publisher.buildFinished(replacingBuild, revision);
+    } else {
+      isPublished = publisher.buildStarted(replacingBuild, revision);
     }
-    return publisher.buildStarted(replacingBuild, revision);
+    if (isRecorded && isPublished) {
+      myOutbox.acknowledge(replacingPromotion.getId(), outboxKey, event);
+    }
+    return true;
   }
 
-  private void proccessPublishing(Event event, BuildPromotion buildPromotion, PublishingProcessor publishingProcessor) {
+  /**
+   * Publishes the event for every publisher and revision of the build, up to a configured number of them in parallel.
+   * Only the statuses of the same build type, feature and revision are published one after another, so that they reach
+   * the VCS host in the order of the events, the publishing for the other builds and revisions is not blocked by them.
+   */
+  @NotNull
+  private CompletableFuture<Void> proccessPublishing(Event event, BuildPromotion buildPromotion, PublishingProcessor publishingProcessor) {
     SBuildType buildType = buildPromotion.getBuildType();
     if (buildType == null) {
       LOG.warn("Build status has not been published: build type not found, id: " + buildPromotion.getBuildTypeExternalId());
-      return;
+      return CompletableFuture.completedFuture(null);
     }
     Map<String, CommitStatusPublisher> publishers = getPublishers(buildType);
     LOG.debug("Event: " + event.getName() + ", build promotion " + LogUtil.describe(buildPromotion) + ", publishers: " + publishers.values());
+    List<Supplier<CompletableFuture<Void>>> publishingTasks = new ArrayList<>();
     for (CommitStatusPublisher publisher : publishers.values()) {
       if (!publisher.isEventSupported(event))
         continue;
@@ -642,9 +1330,54 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
         continue;
       }
       myProblems.clearProblem(publisher);
-      revisions.forEach(revision -> publishingProcessor.publish(event, revision, publisher));
+      for (BuildRevision revision : revisions) {
+        String key = getPublishingKey(buildType, publisher, revision);
+        Executor executor = myPublishingExecutor.forHost(publisher.getServerUrl(), publisher.getId(), PublishingPriority.of(event));
+        publishingTasks.add(() -> mySerialExecutor.submit(key, executor, () -> publishingProcessor.publish(event, revision, publisher)));
+      }
+    }
+    int parallelism = TeamCityProperties.getInteger(PUBLISHING_PARALLELISM_PROPERTY_NAME, 4);
+    return new BoundedFanOut(publishingTasks, parallelism).start().handle((r, t) -> {
+      if (t != null) {
+        LOG.warnAndDebugDetails("Event: " + event.getName() + ", build promotion " + LogUtil.describe(buildPromotion) + ": some of the statuses have not been published", t);
+      }
+      myProblems.clearObsoleteProblems(buildType, publishers.keySet());
+      return null;
+    });
+  }
+
+  /**
+   * Unregisters the promotion removed from the queue from the owners of the queued status
+   * @return true if another promotion with the same queued status is still in the queue, so the status should not be replaced
+   */
+  private boolean isQueuedStatusStillOwned(@NotNull SBuildType buildType, @NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision,
+                                           @NotNull BuildPromotion removedPromotion) {
+    if (myQueuedStatusOwners.unregister(getPublishingKey(buildType, publisher, revision), removedPromotion.getId(), this::isPromotionQueued)) {
+      return false;
     }
-    myProblems.clearObsoleteProblems(buildType, publishers.keySet());
+    LOG.debug("Build promotion " + LogUtil.describe(removedPromotion) + ", publisher " + publisher + ": another build with the same queued status for revision " +
+              revision.getRevision() + " is still in the queue, the status will not be replaced");
+    return true;
+  }
+
+  private boolean isPromotionQueued(long promotionId) {
+    BuildPromotion promotion = myBuildPromotionManager.findPromotionById(promotionId);
+    return promotion != null && promotion.getQueuedBuild() != null;
+  }
+
+  @NotNull
+  private static String getPublishingKey(@NotNull SBuildType buildType, @NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) {
+    return buildType.getInternalId() + ":" + publisher.getBuildFeatureId() + ":" + revision.getRoot().getId() + ":" + revision.getRevision();
+  }
+
+  @NotNull
+  private static String getSequenceKey(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) {
+    return publisher.getBuildFeatureId() + ":" + revision.getRoot().getId() + ":" + revision.getRevision();
+  }
+
+  @NotNull
+  private static String getPromotionKey(@NotNull BuildPromotion buildPromotion) {
+    return "promotion:" + buildPromotion.getId();
   }
 
   private AdditionalTaskInfo buildAdditionalRemovedFromQueueInfo(BuildPromotion buildPromotion, String comment, User user) {
@@ -685,12 +1418,15 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     }
   }
 
+  /**
+   * Publishing of a status, returns false if publishing has failed
+   */
   private interface PublishTask {
-    void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException;
+    boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision) throws PublisherException;
   }
 
   private interface PublishQueuedTask {
-    void run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException;
+    boolean run(@NotNull CommitStatusPublisher publisher, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException;
   }
 
   private boolean isBuildInProgress(SBuild build) {
@@ -710,12 +1446,17 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
   }
 
   private void clearObsoleteProblems(@NotNull BuildTypeTemplate buildTemplate) {
-    Collection<SBuildType> buildTypes = getBuildTypesWithProblems(buildTemplate.getUsages().stream());
-    buildTypes.addAll(getBuildTypesWithProblems(buildTemplate.getUsagesAsDefaultTemplate()));
+    clearObsoleteProblems(getBuildTypesWithProblems(getTemplateUsages(buildTemplate).stream()));
+  }
+
+  @NotNull
+  private Collection<SBuildType> getTemplateUsages(@NotNull BuildTypeTemplate buildTemplate) {
+    Set<SBuildType> buildTypes = new HashSet<>(buildTemplate.getUsages());
+    buildTemplate.getUsagesAsDefaultTemplate().forEach(project -> buildTypes.addAll(project.getBuildTypes()));
     if (buildTemplate instanceof BuildTypeTemplateEx) {
-      buildTypes.addAll(getBuildTypesWithProblems(((BuildTypeTemplateEx) buildTemplate).getUsagesAsEnforcedSettings()));
+      ((BuildTypeTemplateEx) buildTemplate).getUsagesAsEnforcedSettings().forEach(project -> buildTypes.addAll(project.getBuildTypes()));
     }
-    clearObsoleteProblems(buildTypes);
+    return buildTypes;
   }
 
   private Collection<SBuildType> getBuildTypesWithProblems(@NotNull Stream<SBuildType> buildTypes) {
@@ -723,12 +1464,6 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
                      .collect(Collectors.toSet());
   }
 
-  private Collection<SBuildType> getBuildTypesWithProblems(@NotNull Collection<SProject> projects) {
-    return getBuildTypesWithProblems(projects.stream()
-                                             .map(SProject::getBuildTypes)
-                                             .flatMap(Collection::stream));
-  }
-
   private void clearObsoleteProblems(@NotNull Collection<SBuildType> buildTypes) {
     if (buildTypes.isEmpty()) {
       return;
@@ -769,9 +1504,7 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
         return getBuildRevisionForVote(publisher, buildPromotion.getRevisions());
       }
       String branchName = getBranchName(buildPromotion);
-      BranchEx branch = ((BuildTypeEx) buildType).getBranch(branchName);
-      DummyBuild dummyBuild = branch.getDummyBuild();
-      return getBuildRevisionForVote(publisher, dummyBuild.getRevisions());
+      return getBuildRevisionForVote(publisher, myDummyBuildRevisionsCache.getRevisions((BuildTypeEx) buildType, branchName));
     }
 
     return Collections.emptyList();
@@ -813,43 +1546,57 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     SBuildType buildType = buildPromotion.getBuildType();
     if (buildType == null) return false;
 
-    if (!((BuildTypeEx)buildType).getBooleanInternalParameterOrTrue(PUBLISHING_ENABLED_PROPERTY_NAME)) return false;
+    return getPublishingSettingsSnapshot(buildType).isChangesCollectionRequired(buildPromotion);
+  }
 
-    boolean isBuildTypeUsingCSP = testIfBuildTypeUsingCommitStatusPublisher(buildType);
-    if (!isBuildTypeUsingCSP) return false;
+  @NotNull
+  private Map<String, CommitStatusPublisher> getPublishers(@NotNull SBuildType buildType) {
+    return myPublisherRegistry.getPublishers(buildType);
+  }
 
-    String publishingForBuildEnabledStr = buildType.getParameterValue(PUBLISHING_ENABLED_PROPERTY_NAME);
-    boolean isPublishingDisabled = Boolean.FALSE.toString().equalsIgnoreCase(publishingForBuildEnabledStr);
-    if (isPublishingDisabled) return false;
+  private interface PublishingProcessor {
+    void publish(Event event, BuildRevision revision, CommitStatusPublisher publisher);
+    Collection<BuildRevision> getRevisions(BuildType buildType, CommitStatusPublisher publisher);
+  }
 
+  private void runSerially(@NotNull String key, @NotNull Event event, @NotNull Supplier<CompletableFuture<Void>> action, @Nullable Runnable postAction) {
+    CompletableFuture<Void> future = mySerialExecutor.submit(key, myPublishingExecutor.forPriority(PublishingPriority.of(event)), action);
+    if (postAction != null) {
+      future.handle((r, t) -> {
+        postAction.run();
+        return r;
+      });
+    }
+  }
 
-    Collection<CommitStatusPublisher> publishers = getPublishers(buildType).values();
-    for (CommitStatusPublisher publisher : publishers) {
-      if (!areOnlyIncludeAllVcsRulesConfigured(buildPromotion, publisher.getVcsRootId())) {
-        return true;
-      }
+  /**
+   * Logs the tasks waiting and running per lane and host, the time the tasks wait to be run, the tasks moved to the overflow queue
+   * and dropped from it, the time from submitting a build event to starting its publishing, and the tracked build event states
+   */
+  private void logPublishingStats() {
+    if (!LOG.isDebugEnabled()) {
+      return;
+    }
+    try {
+      LOG.debug("Commit status publishing executor: " + myPublishingExecutor +
+                "; keys in progress: " + mySerialExecutor.getActiveKeysCount() + ", queueing delay: " + mySerialExecutor.getTotalQueueingDelay() +
+                "; overflow queue size: " + myOverflowQueue.size() + ", tasks moved to overflow queue: " + myOverflowQueue.getOfferedCount() +
+                ", dropped: " + myOverflowQueue.getDroppedCount() +
+                "; dispatch latency, direct: " + myDirectDispatchLatency + ", via multi-node tasks: " + myMultiNodeDispatchLatency +
+                "; build event states: " + myBuildEventStates + ", publishing sequences: " + myPublishingSequences.size());
+    } catch (Throwable t) {
+      LOG.debug("Failed to log commit status publishing stats", t);
     }
-    return false;
   }
 
   @NotNull
-  private Map<String, CommitStatusPublisher> getPublishers(@NotNull SBuildType buildType) {
-    Map<String, CommitStatusPublisher> publishers = new LinkedHashMap<String, CommitStatusPublisher>();
-    for (SBuildFeatureDescriptor buildFeatureDescriptor : buildType.getResolvedSettings().getBuildFeatures()) {
-      BuildFeature buildFeature = buildFeatureDescriptor.getBuildFeature();
-      if (buildFeature instanceof CommitStatusPublisherFeature) {
-        String featureId = buildFeatureDescriptor.getId();
-        CommitStatusPublisher publisher = myPublisherManager.createPublisher(buildType, featureId, buildFeatureDescriptor.getParameters());
-        if (publisher != null)
-          publishers.put(featureId, publisher);
-      }
-    }
-    return publishers;
+  KeyedDebouncer<Long> getCommentedDebouncer() {
+    return myCommentedDebouncer;
   }
 
-  private interface PublishingProcessor {
-    void publish(Event event, BuildRevision revision, CommitStatusPublisher publisher);
-    Collection<BuildRevision> getRevisions(BuildType buildType, CommitStatusPublisher publisher);
+  @NotNull
+  WindowedBatcher<?> getRemovedFromQueueBatcher() {
+    return myRemovedFromQueueBatcher;
   }
 
   private void runAsync(@NotNull Runnable action, @Nullable Runnable postAction) {
@@ -862,10 +1609,16 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
         });
       }
     } catch (RejectedExecutionException ex) {
-      LOG.warnAndDebugDetails("CommitStatusPublisherListener has failed to run an action asynchronously. Executing in the same thread instead", ex);
-      action.run();
-      if (postAction != null)
-        postAction.run();
+      // the caller may be the event dispatcher thread, it should not be blocked by the action
+      LOG.debug("CommitStatusPublisherListener has failed to run an action asynchronously, it is passed to the publishing executor");
+      myPublishingExecutor.execute(() -> {
+        try {
+          action.run();
+        } finally {
+          if (postAction != null)
+            postAction.run();
+        }
+      });
     }
   }
 
@@ -891,66 +1644,62 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     }
 
     @Override
-    public void accept(final PerformingTask task) {
-      Event eventType = getEventType(task);
-      SBuild build = getBuild(task);
+    void process(@Nullable Event eventType, @Nullable Long buildId, @Nullable Long sequence, @Nullable String submittedAt, boolean isDirectDispatch) {
+      SBuild build = buildId == null ? null : myBuildsManager.findBuildInstanceById(buildId);
 
       if (eventType == null || build == null) {
-        task.finished();
         eventProcessed(eventType);
         return;
       }
 
-      synchronized (myLastEvents) {
-        if (myLastEvents.get(build.getBuildId()) != null && eventType.isFirstTask()) {
-          task.finished();
-          eventProcessed(eventType);
-          return;
-        }
-        if (eventType.isConsequentTask())
-          myLastEvents.put(build.getBuildId(), eventType);
+      if (!myBuildEventStates.accept(build.getBuildId(), eventType, build.isFinished())) {
+        eventProcessed(eventType);
+        return;
       }
 
-      // We are accepting the task. It will be either completed or will fail
-      // One way or another it will be marked as finished (see TW-69618)
-      task.finished();
-
-      runAsync(() -> {
-          Lock lock = myLocks.get(build.getBuildTypeId());
-          lock.lock();
-          try {
-            runForEveryPublisher(eventType, build);
-          } finally {
-            lock.unlock();
+      myEventsCoalescer.offer(build.getBuildId(), eventType);
+      runSerially(getPromotionKey(build.getBuildPromotion()), eventType, () -> {
+          if (!myEventsCoalescer.take(build.getBuildId(), eventType)) {
+            LOG.debug("Event: " + eventType.getName() + ", build " + LogUtil.describe(build) + ": superseded by a newer event, skip publishing");
+            return CompletableFuture.completedFuture(null);
           }
-        }, () -> { eventProcessed(eventType); });
-    }
-
-    @Nullable
-    private SBuild getBuild(final PerformingTask task) {
-      Long buildId = task.getLongArg1();
-      if (buildId == null) return null;
-
-      return myBuildsManager.findBuildInstanceById(buildId);
+          recordDispatchLatency(parseSubmitTime(submittedAt), isDirectDispatch);
+          return runForEveryPublisher(eventType, build, sequence);
+        }, () -> {
+          myBuildEventStates.published(build.getBuildId(), eventType, build.isFinished());
+          eventProcessed(eventType);
+        });
     }
 
     @Override
-    void doRunTask(PublishTask task, CommitStatusPublisher publisher, BuildRevision revision, AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
-      task.run(publisher, revision);
+    boolean doRunTask(PublishTask task, CommitStatusPublisher publisher, BuildRevision revision, AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
+      return task.run(publisher, revision);
     }
 
-    private void runForEveryPublisher(@NotNull Event event, @NotNull SBuild build) {
+    /**
+     * @param sequence sequence number of the task, null for the tasks submitted by the nodes which do not issue them
+     */
+    @NotNull
+    private CompletableFuture<Void> runForEveryPublisher(@NotNull Event event,
+                                                         @NotNull SBuild build,
+                                                         @Nullable Long sequence) {
 
       PublishTask task = myTaskSupplier.apply(build);
 
       SBuildType buildType = build.getBuildType();
       if (buildType == null)
-        return;
+        return CompletableFuture.completedFuture(null);
       BuildPromotion buildPromotion = build.getBuildPromotion();
 
       PublishingProcessor publishingProcessor = new PublishingProcessor() {
         @Override
         public void publish(Event event, BuildRevision revision, CommitStatusPublisher publisher) {
+          if (sequence != null &&
+              !myPublishingSequences.advance(buildPromotion.getId(), getSequenceKey(publisher, revision), sequence)) {
+            LOG.debug("Event: " + event.getName() + ", build " + LogUtil.describe(build) + ", publisher " + publisher +
+                      ": a newer status has already been published for revision " + revision.getRevision() + ", skip publishing");
+            return;
+          }
           runTask(event, build.getBuildPromotion(), LogUtil.describe(build), task, publisher, revision, null);
         }
 
@@ -961,7 +1710,7 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
         }
       };
 
-      proccessPublishing(event, buildPromotion, publishingProcessor);
+      return proccessPublishing(event, buildPromotion, publishingProcessor);
     }
 
   }
@@ -980,65 +1729,35 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     }
 
     @Override
-    public void accept(final PerformingTask task) {
-      Event eventType = getEventType(task);
-      BuildPromotion promotion = getBuildPromotion(task);
+    void process(@Nullable Event eventType, @Nullable Long promotionId, @Nullable Long submittedAt, @Nullable String comment, boolean isDirectDispatch) {
+      BuildPromotion promotion = promotionId == null ? null : myBuildPromotionManager.findPromotionById(promotionId);
 
-      User commentAuthor = getUser(task);
-      String comment = getComment(task);
       if (eventType == null || promotion == null) {
-        task.finished();
         eventProcessed(eventType);
         return;
       }
 
-      task.finished();
-
-      AdditionalTaskInfo additionalTaskInfo = new AdditionalTaskInfo(comment, commentAuthor);
+      AdditionalTaskInfo additionalTaskInfo = new AdditionalTaskInfo(comment, null);
 
-      runAsync(() -> {
-        Lock lock = myLocks.get(promotion.getBuildTypeId());
-        lock.lock();
-        try {
-          runForEveryPublisher(eventType, promotion, additionalTaskInfo);
-        } finally {
-          lock.unlock();
-        }
+      runSerially(getPromotionKey(promotion), eventType, () -> {
+        recordDispatchLatency(submittedAt, isDirectDispatch);
+        return runForEveryPublisher(eventType, promotion, additionalTaskInfo);
       }, () -> { eventProcessed(eventType); });
     }
 
-    @Nullable
-    private BuildPromotion getBuildPromotion(final  PerformingTask task) {
-      Long promotionId = task.getLongArg1();
-      if (promotionId == null)
-        return null;
-
-      return myBuildPromotionManager.findPromotionById(promotionId);
-    }
-
-    @Nullable
-    protected User getUser(PerformingTask task) {
-      Long userId = task.getLongArg2();
-      return userId == null ? null : myUserModel.findUserById(userId);
-    }
-
-    @Nullable
-    protected String getComment(PerformingTask task) {
-      return task.getStringArg();
-    }
-
     @Override
-    void doRunTask(PublishQueuedTask task, CommitStatusPublisher publisher, BuildRevision revision, AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
-      task.run(publisher, revision, additionalTaskInfo);
+    boolean doRunTask(PublishQueuedTask task, CommitStatusPublisher publisher, BuildRevision revision, AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
+      return task.run(publisher, revision, additionalTaskInfo);
     }
 
-    private void runForEveryPublisher(@NotNull Event event, @NotNull BuildPromotion buildPromotion, AdditionalTaskInfo additionalTaskInfo) {
+    @NotNull
+    private CompletableFuture<Void> runForEveryPublisher(@NotNull Event event, @NotNull BuildPromotion buildPromotion, AdditionalTaskInfo additionalTaskInfo) {
       PublishQueuedTask publishTask = myTaskSupplier.apply(buildPromotion);
 
       PublishingProcessor publishingProcessor = new PublishingProcessor() {
         @Override
         public void publish(Event event, BuildRevision revision, CommitStatusPublisher publisher) {
-          runAsync(() -> doPublish(revision, publisher), null);
+          doPublish(revision, publisher);
         }
 
         private void doPublish(BuildRevision revision, CommitStatusPublisher publisher) {
@@ -1050,6 +1769,13 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
             return;
           }
           if (isEventSuitableForRevision) {
+            SBuildType buildType = buildPromotion.getBuildType();
+            if (buildType != null &&
+                !myQueuedStatusOwners.register(getPublishingKey(buildType, publisher, revision), buildPromotion.getId(), CommitStatusPublisherListener.this::isPromotionQueued)) {
+              LOG.debug("Event: " + event.getName() + ", build promotion " + LogUtil.describe(buildPromotion) + ", publisher " + publisher +
+                        ": queued status for revision " + revision.getRevision() + " has already been published for another queued build");
+              return;
+            }
             runTask(event, buildPromotion, LogUtil.describe(buildPromotion), publishTask, publisher, revision, additionalTaskInfo);
           } else {
             LOG.debug("Event \"" + event + "\" is not suitable to be published to rooot \"" + publisher.getVcsRootId() + "\" for revision " + revision.getRevision());
@@ -1061,15 +1787,63 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
           return getQueuedBuildRevisionForVote(buildType, publisher, buildPromotion);
         }
       };
-      proccessPublishing(event, buildPromotion, publishingProcessor);
+      return proccessPublishing(event, buildPromotion, publishingProcessor);
     }
 
   }
 
 
+  private class QueuedBatchTaskConsumer extends MultiNodeTasks.TaskConsumer {
+
+    private final QueuedBuildPublisherTaskConsumer myQueuedTaskConsumer;
+
+    QueuedBatchTaskConsumer(@NotNull QueuedBuildPublisherTaskConsumer queuedTaskConsumer) {
+      myQueuedTaskConsumer = queuedTaskConsumer;
+    }
+
+    @Override
+    public boolean beforeAccept(@NotNull final PerformingTask task) {
+      return myQueuedTaskConsumer.beforeAccept(task);
+    }
+
+    @Override
+    public void accept(final PerformingTask task) {
+      try {
+        for (Long promotionId : QueuedTasksBatch.decode(task.getStringArg())) {
+          try {
+            myQueuedTaskConsumer.process(Event.QUEUED, promotionId, task.getLongArg1(), DefaultStatusMessages.BUILD_QUEUED, false);
+          } catch (Exception e) {
+            LOG.warnAndDebugDetails("Failed to publish queued status for build promotion with id " + promotionId, e);
+          }
+        }
+      } finally {
+        task.finished();
+      }
+    }
+  }
+
   private abstract class PublisherTaskConsumer<T> extends MultiNodeTasks.TaskConsumer {
 
-    abstract void doRunTask(T task, CommitStatusPublisher publisher, BuildRevision revision, AdditionalTaskInfo additionalTaskInfo) throws PublisherException;
+    /**
+     * @return false if the status has not been published and should be published again later
+     */
+    abstract boolean doRunTask(T task, CommitStatusPublisher publisher, BuildRevision revision, AdditionalTaskInfo additionalTaskInfo) throws PublisherException;
+
+    /**
+     * Starts publishing for the task, the publishing itself is done asynchronously
+     */
+    abstract void process(@Nullable Event eventType, @Nullable Long longArg1, @Nullable Long longArg2, @Nullable String stringArg, boolean isDirectDispatch);
+
+    @Override
+    public void accept(final PerformingTask task) {
+      // We are accepting the task. It will be either completed or will fail
+      // One way or another it will be marked as finished (see TW-69618)
+      try {
+        process(getEventType(task), task.getLongArg1(), task.getLongArg2(), task.getStringArg(), false);
+      } finally {
+        task.finished();
+      }
+    }
 
     @Nullable
     protected Event getEventType(PerformingTask task) {
@@ -1084,11 +1858,20 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
                            @NotNull CommitStatusPublisher publisher,
                            @NotNull BuildRevision revision,
                            @Nullable AdditionalTaskInfo additionalTaskInfo) {
+      String outboxKey = getSequenceKey(publisher, revision);
+      boolean isRecorded = false;
       try {
         if (!publisher.isAvailable(promotion)) {
           return;
         }
-        doRunTask(publishTask, publisher, revision, additionalTaskInfo);
+        if (myOutbox.isEnabled()) {
+          myOutbox.record(promotion.getId(), outboxKey, event);
+          isRecorded = true;
+        }
+        boolean isPublished = doRunTask(publishTask, publisher, revision, additionalTaskInfo);
+        if (isRecorded && isPublished) {
+          myOutbox.acknowledge(promotion.getId(), outboxKey, event);
+        }
       } catch (Throwable t) {
         myProblems.reportProblem(String.format("Commit Status Publisher has failed to publish %s status", event.getName()), publisher, buildDescription, null, t, LOG);
         if (shouldFailBuild(publisher.getBuildType())) {
@@ -1101,9 +1884,60 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     }
   }
 
+  private static class RemovedFromQueueBuild {
+    private final SQueuedBuild myBuild;
+    private final User myUser;
+    private final String myComment;
+
+    private RemovedFromQueueBuild(@NotNull SQueuedBuild build, @Nullable User user, @Nullable String comment) {
+      myBuild = build;
+      myUser = user;
+      myComment = comment;
+    }
+
+    @NotNull
+    SQueuedBuild getBuild() {
+      return myBuild;
+    }
+
+    @Nullable
+    User getUser() {
+      return myUser;
+    }
+
+    @Nullable
+    String getComment() {
+      return myComment;
+    }
+  }
+
+  /**
+   * Modification waiting to be processed. Only the id of the modification is kept, so the queue does not hold
+   * the changed files of the modifications in memory. The root is a VCS root instance shared by the server.
+   */
+  private static class QueuedModification {
+    private final VcsRoot myRoot;
+    private final long myModificationId;
+
+    private QueuedModification(@NotNull VcsRoot root, long modificationId) {
+      myRoot = root;
+      myModificationId = modificationId;
+    }
+
+    @NotNull
+    VcsRoot getRoot() {
+      return myRoot;
+    }
+
+    long getModificationId() {
+      return myModificationId;
+    }
+  }
+
   private class VcsModificationWithRoot {
     private final VcsModificationEx myModification;
     private final VcsRoot myRoot;
+    private List<String> myChangedFiles;
 
     private VcsModificationWithRoot(VcsModificationEx modification, VcsRoot root) {
       myModification = modification;
@@ -1117,5 +1951,18 @@ public class CommitStatusPublisherListener extends BuildServerAdapter implements
     public VcsRoot getRoot() {
       return myRoot;
     }
+
+    /**
+     * @return relative names of the files changed by the modification, computed once for all the checkout rules
+     */
+    @NotNull
+    public List<String> getChangedFiles() {
+      if (myChangedFiles == null) {
+        myChangedFiles = myModification.getChanges().stream()
+                                       .map(VcsFileModification::getRelativeFileName)
+                                       .collect(Collectors.toList());
+      }
+      return myChangedFiles;
+    }
   }
 }
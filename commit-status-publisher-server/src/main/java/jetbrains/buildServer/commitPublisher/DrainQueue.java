@@ -0,0 +1,90 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Multi-producer queue which is consumed in batches of limited size.
+ * Both adding and draining an element take constant time, so the cost of processing grows linearly with the number of elements.
+ * When the queue reaches its capacity, new elements are rejected and counted as dropped.
+ */
+class DrainQueue<T> {
+
+  private final Queue<T> myElements = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger mySize = new AtomicInteger();
+  private final AtomicLong myDropped = new AtomicLong();
+  private final IntSupplier myCapacity;
+
+  DrainQueue() {
+    this(() -> Integer.MAX_VALUE);
+  }
+
+  DrainQueue(@NotNull IntSupplier capacity) {
+    myCapacity = capacity;
+  }
+
+  /**
+   * @return false if the element was dropped because the queue is full
+   */
+  boolean add(@NotNull T element) {
+    if (mySize.incrementAndGet() > myCapacity.getAsInt()) {
+      mySize.decrementAndGet();
+      myDropped.incrementAndGet();
+      return false;
+    }
+    myElements.add(element);
+    return true;
+  }
+
+  /**
+   * Removes up to the specified number of the oldest elements from the queue
+   */
+  @NotNull
+  List<T> drain(int maxElements) {
+    List<T> result = new ArrayList<>(Math.min(Math.max(mySize.get(), 0), maxElements));
+    while (result.size() < maxElements) {
+      T element = myElements.poll();
+      if (element == null) {
+        break;
+      }
+      mySize.decrementAndGet();
+      result.add(element);
+    }
+    return result;
+  }
+
+  boolean isEmpty() {
+    return myElements.isEmpty();
+  }
+
+  int size() {
+    return Math.max(mySize.get(), 0);
+  }
+
+  long getDroppedCount() {
+    return myDropped.get();
+  }
+}
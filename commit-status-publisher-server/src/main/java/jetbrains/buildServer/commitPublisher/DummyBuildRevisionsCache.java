@@ -0,0 +1,135 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.serverSide.BuildRevision;
+import jetbrains.buildServer.serverSide.BuildTypeEx;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps the revisions of the dummy builds of build type branches, which are used to publish the queued status
+ * of builds without collected changes. Computing a dummy build is expensive, while its revisions only change when
+ * a new modification is detected in one of the VCS roots, so many queued builds on the same branch share one computation.
+ * Revisions are dropped when a modification of any of their roots is detected, or when the build type settings change.
+ */
+class DummyBuildRevisionsCache {
+
+  final static String MAX_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.dummyBuildRevisionsCache.maxSize";
+  final static String EXPIRATION_PROPERTY_NAME = "teamcity.commitStatusPublisher.dummyBuildRevisionsCache.expiration";
+
+  private final Cache<String, CachedRevisions> myRevisions;
+  private final ConcurrentMap<Long, Set<String>> myKeysByRoot = new ConcurrentHashMap<>();
+  private final AtomicLong myVersion = new AtomicLong();
+
+  DummyBuildRevisionsCache() {
+    myRevisions = CacheBuilder.newBuilder()
+                              .maximumSize(TeamCityProperties.getInteger(MAX_SIZE_PROPERTY_NAME, 10_000))
+                              .expireAfterWrite(TeamCityProperties.getIntervalMilliseconds(EXPIRATION_PROPERTY_NAME, 60_000), TimeUnit.MILLISECONDS)
+                              .removalListener(this::removed)
+                              .recordStats()
+                              .build();
+  }
+
+  @NotNull
+  List<BuildRevision> getRevisions(@NotNull BuildTypeEx buildType, @NotNull String branchName) {
+    String key = getKey(buildType.getInternalId(), branchName);
+    CachedRevisions cached = myRevisions.getIfPresent(key);
+    if (cached != null) {
+      return cached.myRevisions;
+    }
+    long version = myVersion.get();
+    cached = new CachedRevisions(buildType.getBranch(branchName).getDummyBuild().getRevisions());
+    for (Long rootId : cached.myRootIds) {
+      myKeysByRoot.computeIfAbsent(rootId, id -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+    myRevisions.put(key, cached);
+    if (version != myVersion.get()) {
+      // a modification was detected or settings have changed while the dummy build was being computed, the revisions may be outdated already
+      myRevisions.asMap().remove(key, cached);
+    }
+    return cached.myRevisions;
+  }
+
+  /**
+   * Drops the revisions of all the dummy builds which use the VCS root instance
+   */
+  void invalidateRoot(long rootId) {
+    myVersion.incrementAndGet();
+    Set<String> keys = myKeysByRoot.remove(rootId);
+    if (keys != null) {
+      myRevisions.invalidateAll(keys);
+    }
+  }
+
+  void invalidateBuildType(@NotNull String buildTypeInternalId) {
+    myVersion.incrementAndGet();
+    String prefix = getKey(buildTypeInternalId, "");
+    myRevisions.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+  }
+
+  long size() {
+    return myRevisions.size();
+  }
+
+  @NotNull
+  String getStats() {
+    return myRevisions.stats().toString();
+  }
+
+  private void removed(@NotNull RemovalNotification<String, CachedRevisions> notification) {
+    CachedRevisions revisions = notification.getValue();
+    String key = notification.getKey();
+    if (revisions == null || key == null) {
+      return;
+    }
+    // the key could be cached again with new revisions meanwhile, their roots should still refer to it
+    CachedRevisions current = myRevisions.asMap().get(key);
+    for (Long rootId : revisions.myRootIds) {
+      Set<String> keys = myKeysByRoot.get(rootId);
+      if (keys != null && (current == null || !current.myRootIds.contains(rootId))) {
+        keys.remove(key);
+      }
+    }
+  }
+
+  @NotNull
+  private static String getKey(@NotNull String buildTypeInternalId, @NotNull String branchName) {
+    return buildTypeInternalId + ":" + branchName;
+  }
+
+  private static class CachedRevisions {
+    private final List<BuildRevision> myRevisions;
+    private final Set<Long> myRootIds = new HashSet<>();
+
+    private CachedRevisions(@NotNull List<BuildRevision> revisions) {
+      myRevisions = Collections.unmodifiableList(new ArrayList<>(revisions));
+      for (BuildRevision revision : revisions) {
+        myRootIds.add(revision.getRoot().getId());
+      }
+    }
+  }
+}
@@ -50,16 +50,21 @@ public abstract class HttpBasedCommitStatusPublisher extends BaseCommitStatusPub
     return myLinks;
   }
 
-  protected void postJson(@NotNull final String url,
-                          @Nullable final String username, @Nullable final String password,
-                          @Nullable final String data,
-                          @Nullable final Map<String, String> headers,
-                          @NotNull final String buildDescription) {
+  /**
+   * @return false if the request has failed, the failure is reported as a problem of the publisher
+   */
+  protected boolean postJson(@NotNull final String url,
+                             @Nullable final String username, @Nullable final String password,
+                             @Nullable final String data,
+                             @Nullable final Map<String, String> headers,
+                             @NotNull final String buildDescription) {
     try {
       LoggerUtil.logRequest(getId(), HttpMethod.POST, url, data);
       IOGuard.allowNetworkCall(() -> HttpHelper.post(url, username, password, data, ContentType.APPLICATION_JSON, headers, getConnectionTimeout(), getSettings().trustStore(), this));
+      return true;
     } catch (Exception ex) {
       myProblems.reportProblem("Commit Status Publisher HTTP request has failed", this, buildDescription, url, ex, LOG);
+      return false;
     }
   }
 
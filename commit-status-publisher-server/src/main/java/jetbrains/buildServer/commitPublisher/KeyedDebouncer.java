@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.jetbrains.annotations.NotNull;
+
+import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
+
+/**
+ * Delays actions by key, so that the actions requested for the same key within a time window after the first one
+ * are merged and the action is run once at the end of the window. The window is not extended by the merged requests,
+ * so a steady stream of requests still runs the action once per window.
+ * With a non-positive window the action is run right away in the calling thread.
+ */
+class KeyedDebouncer<K> {
+
+  private final String myName;
+  private final LongSupplier myWindowMs;
+  private final ConcurrentMap<K, Runnable> myPending = new ConcurrentHashMap<>();
+  private final AtomicLong myMergedCount = new AtomicLong();
+  private final AtomicLong myCancelledCount = new AtomicLong();
+  private final ScheduledExecutorService myScheduler;
+  private boolean myShutdown = false;
+
+  KeyedDebouncer(@NotNull String name, @NotNull ScheduledExecutorService scheduler, @NotNull LongSupplier windowMs) {
+    myName = name;
+    myScheduler = scheduler;
+    myWindowMs = windowMs;
+  }
+
+  /**
+   * Schedules the action for the key. If an action for the key is already pending, it is replaced by this one.
+   */
+  void schedule(@NotNull K key, @NotNull Runnable action) {
+    long window = myWindowMs.getAsLong();
+    if (window <= 0) {
+      action.run();
+      return;
+    }
+    if (myPending.put(key, action) != null) {
+      myMergedCount.incrementAndGet();
+      return;
+    }
+    synchronized (this) {
+      if (!myShutdown) {
+        myScheduler.schedule(() -> fire(key), window, TimeUnit.MILLISECONDS);
+        return;
+      }
+    }
+    myPending.remove(key, action);
+  }
+
+  /**
+   * @return true if a pending action for the key has been cancelled
+   */
+  boolean cancel(@NotNull K key) {
+    if (myPending.remove(key) != null) {
+      myCancelledCount.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  long getMergedCount() {
+    return myMergedCount.get();
+  }
+
+  long getCancelledCount() {
+    return myCancelledCount.get();
+  }
+
+  int getPendingCount() {
+    return myPending.size();
+  }
+
+  /**
+   * Stops scheduling new actions, the pending ones are still run when their windows end
+   */
+  void shutdown() {
+    synchronized (this) {
+      myShutdown = true;
+    }
+  }
+
+  private void fire(@NotNull K key) {
+    Runnable action = myPending.remove(key);
+    if (action == null) {
+      return;
+    }
+    try {
+      action.run();
+    } catch (Throwable t) {
+      LOG.warnAndDebugDetails(myName + ": failed to run the action for " + key, t);
+    }
+  }
+}
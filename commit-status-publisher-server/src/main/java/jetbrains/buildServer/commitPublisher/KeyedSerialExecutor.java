@@ -0,0 +1,181 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.jetbrains.annotations.NotNull;
+
+import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
+
+/**
+ * Runs the tasks submitted with the same key one after another in the order of submission,
+ * while the tasks with different keys are run in parallel on the underlying executor.
+ * A task is considered to be completed when the stage it returns is completed, so the next task
+ * for the key is not started until the asynchronous part of the previous one is done.
+ */
+class KeyedSerialExecutor {
+
+  private static final long SLOW_QUEUEING_THRESHOLD_MS = 1_000;
+
+  private final Executor myExecutor;
+  private final ConcurrentMap<String, CompletableFuture<Void>> myTails = new ConcurrentHashMap<>();
+  private final QueueingDelay myTotalQueueingDelay = new QueueingDelay();
+
+  KeyedSerialExecutor(@NotNull Executor executor) {
+    myExecutor = executor;
+  }
+
+  @NotNull
+  CompletableFuture<Void> submit(@NotNull String key, @NotNull Runnable task) {
+    return submit(key, myExecutor, task);
+  }
+
+  @NotNull
+  CompletableFuture<Void> submit(@NotNull String key, @NotNull Executor executor, @NotNull Runnable task) {
+    return submit(key, executor, () -> {
+      task.run();
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  @NotNull
+  CompletableFuture<Void> submit(@NotNull String key, @NotNull Supplier<? extends CompletionStage<?>> task) {
+    return submit(key, myExecutor, task);
+  }
+
+  /**
+   * Schedules the task to be run on the executor after all the tasks previously submitted with the same key are completed
+   * @return future completed when the stage returned by the task is completed
+   */
+  @NotNull
+  CompletableFuture<Void> submit(@NotNull String key, @NotNull Executor executor, @NotNull Supplier<? extends CompletionStage<?>> task) {
+    long submittedAt = System.nanoTime();
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    CompletableFuture<Void> previous = myTails.put(key, result);
+    Runnable start = () -> dispatch(key, executor, task, result, submittedAt);
+    if (previous == null) {
+      start.run();
+    } else {
+      previous.whenComplete((r, t) -> start.run());
+    }
+    result.whenComplete((r, t) -> myTails.remove(key, result));
+    return result;
+  }
+
+  int getActiveKeysCount() {
+    return myTails.size();
+  }
+
+  @NotNull
+  QueueingDelay getTotalQueueingDelay() {
+    return myTotalQueueingDelay;
+  }
+
+  private void dispatch(@NotNull String key,
+                        @NotNull Executor executor,
+                        @NotNull Supplier<? extends CompletionStage<?>> task,
+                        @NotNull CompletableFuture<Void> result,
+                        long submittedAt) {
+    try {
+      executor.execute(new KeyedTask(key, task, result, submittedAt));
+    } catch (RejectedExecutionException ex) {
+      LOG.warnAndDebugDetails("Commit status publishing task for key " + key + " has been rejected by executor and will not be run", ex);
+      result.completeExceptionally(ex);
+    }
+  }
+
+  private void run(@NotNull String key, @NotNull Supplier<? extends CompletionStage<?>> task, @NotNull CompletableFuture<Void> result, long submittedAt) {
+    long delayMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt);
+    myTotalQueueingDelay.record(delayMs);
+    if (delayMs > SLOW_QUEUEING_THRESHOLD_MS) {
+      LOG.debug("Commit status publishing task for key " + key + " has been waiting in queue for " + delayMs + " ms");
+    }
+
+    CompletionStage<?> stage;
+    try {
+      stage = task.get();
+    } catch (Throwable t) {
+      result.completeExceptionally(t);
+      return;
+    }
+    stage.whenComplete((r, t) -> {
+      if (t != null) {
+        result.completeExceptionally(t);
+      } else {
+        result.complete(null);
+      }
+    });
+  }
+
+  private class KeyedTask implements Runnable, OverflowQueue.Droppable {
+    private final String myKey;
+    private final Supplier<? extends CompletionStage<?>> myTask;
+    private final CompletableFuture<Void> myResult;
+    private final long mySubmittedAt;
+
+    private KeyedTask(@NotNull String key, @NotNull Supplier<? extends CompletionStage<?>> task, @NotNull CompletableFuture<Void> result, long submittedAt) {
+      myKey = key;
+      myTask = task;
+      myResult = result;
+      mySubmittedAt = submittedAt;
+    }
+
+    @Override
+    public void run() {
+      KeyedSerialExecutor.this.run(myKey, myTask, myResult, mySubmittedAt);
+    }
+
+    @Override
+    public void dropped() {
+      // let the next tasks for the key proceed
+      myResult.completeExceptionally(new RejectedExecutionException("Commit status publishing task for key " + myKey + " has been dropped"));
+    }
+  }
+
+  static class QueueingDelay {
+    private final AtomicLong myCount = new AtomicLong();
+    private final AtomicLong myTotalMs = new AtomicLong();
+    private final AtomicLong myMaxMs = new AtomicLong();
+
+    void record(long delayMs) {
+      myCount.incrementAndGet();
+      myTotalMs.addAndGet(delayMs);
+      myMaxMs.accumulateAndGet(delayMs, Math::max);
+    }
+
+    long getCount() {
+      return myCount.get();
+    }
+
+    long getMaxMs() {
+      return myMaxMs.get();
+    }
+
+    long getAverageMs() {
+      long count = myCount.get();
+      return count == 0 ? 0 : myTotalMs.get() / count;
+    }
+
+    @Override
+    public String toString() {
+      return "count: " + getCount() + ", average: " + getAverageMs() + " ms, max: " + getMaxMs() + " ms";
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds the build types affected by a batch of modifications.
+ * Modifications are indexed by the ids of the build types they are related to, so every build type
+ * is checked against its own modifications only, and the check stops on the first modification affecting it.
+ * The cost is proportional to the number of (modification, related build type) pairs instead of
+ * the number of build types multiplied by the number of modifications.
+ */
+class ModificationsJoin {
+
+  private ModificationsJoin() {
+  }
+
+  /**
+   * @param relatedBuildTypeIds ids of the build types the modification is related to
+   * @param findBuildTypes      resolves build types by ids
+   * @param buildTypeId         id of a build type, as returned for a related modification
+   * @param isAffected          checks if the build type is affected by the related modification
+   * @return affected build types in the order they were resolved
+   */
+  @NotNull
+  static <B, M> List<B> findAffectedBuildTypes(@NotNull Collection<M> modifications,
+                                               @NotNull Function<M, ? extends Collection<String>> relatedBuildTypeIds,
+                                               @NotNull Function<Set<String>, ? extends Collection<B>> findBuildTypes,
+                                               @NotNull Function<B, String> buildTypeId,
+                                               @NotNull BiPredicate<B, M> isAffected) {
+    Map<String, List<M>> modificationsByBuildType = new LinkedHashMap<>();
+    for (M modification : modifications) {
+      for (String id : relatedBuildTypeIds.apply(modification)) {
+        modificationsByBuildType.computeIfAbsent(id, k -> new ArrayList<>()).add(modification);
+      }
+    }
+    if (modificationsByBuildType.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<B> result = new ArrayList<>();
+    for (B buildType : findBuildTypes.apply(modificationsByBuildType.keySet())) {
+      List<M> related = modificationsByBuildType.get(buildTypeId.apply(buildType));
+      if (related == null) {
+        continue;
+      }
+      for (M modification : related) {
+        if (isAffected.test(buildType, modification)) {
+          result.add(buildType);
+          break;
+        }
+      }
+    }
+    return result;
+  }
+}
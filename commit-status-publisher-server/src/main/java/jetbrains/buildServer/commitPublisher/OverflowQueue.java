@@ -0,0 +1,166 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import jetbrains.buildServer.Used;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
+
+/**
+ * Keeps the tasks which the {@link PublishingExecutor} can not accept until it takes them back, so that a rejection
+ * never makes the caller (e.g. the server event dispatcher thread) do the publishing itself. The queue has no threads of its own.
+ * The queue is bounded: when it is full, the oldest task of the lowest {@link PublishingPriority} lane is dropped,
+ * so the statuses defining the result of a build are never dropped in favour of the intermediate ones.
+ */
+class OverflowQueue {
+
+  final static String CAPACITY_PROPERTY_NAME = "teamcity.commitStatusPublisher.overflowQueue.capacity";
+  private final static int DEFAULT_CAPACITY = 1_000;
+
+  /**
+   * Task to be notified when it is dropped from the queue without being run
+   */
+  interface Droppable {
+    void dropped();
+  }
+
+  private final IntSupplier myCapacity;
+  private final Map<PublishingPriority, Deque<Runnable>> myTasks = new EnumMap<>(PublishingPriority.class);
+  private int mySize = 0;
+  private final AtomicLong myOfferedCount = new AtomicLong();
+  private final AtomicLong myDroppedCount = new AtomicLong();
+  private boolean myShutdown = false;
+
+  OverflowQueue() {
+    this(() -> TeamCityProperties.getInteger(CAPACITY_PROPERTY_NAME, DEFAULT_CAPACITY));
+  }
+
+  @Used("tests")
+  OverflowQueue(@NotNull IntSupplier capacity) {
+    myCapacity = capacity;
+    for (PublishingPriority priority : PublishingPriority.values()) {
+      myTasks.put(priority, new ArrayDeque<>());
+    }
+  }
+
+  void offer(@NotNull Runnable task, @NotNull PublishingPriority priority) {
+    Runnable dropped;
+    boolean shutdown;
+    synchronized (myTasks) {
+      shutdown = myShutdown;
+      if (shutdown) {
+        dropped = task;
+      } else {
+        dropped = mySize >= Math.max(1, myCapacity.getAsInt()) ? pollLowest(task, priority) : null;
+        if (dropped != task) {
+          myTasks.get(priority).addLast(task);
+          mySize++;
+        }
+        myOfferedCount.incrementAndGet();
+      }
+    }
+    if (dropped == null) {
+      return;
+    }
+    if (shutdown) {
+      LOG.debug("Commit status publishing overflow queue is shut down, the task will not be run");
+    } else {
+      long droppedCount = myDroppedCount.incrementAndGet();
+      LOG.warn("Commit status publishing overflow queue is full, the oldest task of the lowest priority has been dropped. Tasks dropped since server start: " + droppedCount);
+    }
+    notifyDropped(dropped);
+  }
+
+  /**
+   * @return the oldest task of the highest priority lane or null if the queue is empty
+   */
+  @Nullable
+  Runnable poll() {
+    synchronized (myTasks) {
+      for (PublishingPriority priority : PublishingPriority.values()) {
+        Runnable task = myTasks.get(priority).pollFirst();
+        if (task != null) {
+          mySize--;
+          return task;
+        }
+      }
+      return null;
+    }
+  }
+
+  int size() {
+    synchronized (myTasks) {
+      return mySize;
+    }
+  }
+
+  /**
+   * @return number of tasks rejected by the executors and moved to the queue since the server start
+   */
+  long getOfferedCount() {
+    return myOfferedCount.get();
+  }
+
+  long getDroppedCount() {
+    return myDroppedCount.get();
+  }
+
+  void shutdown() {
+    synchronized (myTasks) {
+      myShutdown = true;
+      myTasks.values().forEach(Deque::clear);
+      mySize = 0;
+    }
+  }
+
+  /**
+   * Takes the oldest task of the lowest lane, unless the offered task is of a lower lane than all the queued ones
+   * @return task to be dropped, which may be the offered one
+   */
+  @NotNull
+  private Runnable pollLowest(@NotNull Runnable offeredTask, @NotNull PublishingPriority offeredPriority) {
+    PublishingPriority[] priorities = PublishingPriority.values();
+    for (int i = priorities.length - 1; i >= 0 && priorities[i].compareTo(offeredPriority) >= 0; i--) {
+      Runnable task = myTasks.get(priorities[i]).pollFirst();
+      if (task != null) {
+        mySize--;
+        return task;
+      }
+    }
+    return offeredTask;
+  }
+
+  private static void notifyDropped(@NotNull Runnable task) {
+    if (task instanceof Droppable) {
+      try {
+        ((Droppable)task).dropped();
+      } catch (Throwable t) {
+        LOG.warnAndDebugDetails("Failed to notify dropped commit status publishing task", t);
+      }
+    }
+  }
+}
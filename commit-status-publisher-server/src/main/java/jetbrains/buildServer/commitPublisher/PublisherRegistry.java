@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import jetbrains.buildServer.serverSide.BuildFeature;
+import jetbrains.buildServer.serverSide.SBuildFeatureDescriptor;
+import jetbrains.buildServer.serverSide.SBuildType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps publishers created for build types, so that the same publisher instance
+ * (and the state it has warmed up) is reused by all the builds of a build type
+ * until its settings change.
+ * A cached publisher is used by several publishing threads at once, so the publishers keep their settings in final fields
+ * and the state they warm up (e.g. the detected server endpoint) in volatile fields or thread-safe structures.
+ */
+class PublisherRegistry {
+
+  private final PublisherManager myPublisherManager;
+  private final ConcurrentMap<String, ConcurrentMap<String, CachedPublisher>> myPublishers = new ConcurrentHashMap<>();
+
+  PublisherRegistry(@NotNull PublisherManager publisherManager) {
+    myPublisherManager = publisherManager;
+  }
+
+  @NotNull
+  Map<String, CommitStatusPublisher> getPublishers(@NotNull SBuildType buildType) {
+    ConcurrentMap<String, CachedPublisher> cachedPublishers = myPublishers.computeIfAbsent(buildType.getInternalId(), id -> new ConcurrentHashMap<>());
+    Map<String, CommitStatusPublisher> publishers = new LinkedHashMap<String, CommitStatusPublisher>();
+    for (SBuildFeatureDescriptor buildFeatureDescriptor : buildType.getResolvedSettings().getBuildFeatures()) {
+      BuildFeature buildFeature = buildFeatureDescriptor.getBuildFeature();
+      if (!(buildFeature instanceof CommitStatusPublisherFeature))
+        continue;
+      String featureId = buildFeatureDescriptor.getId();
+      Map<String, String> params = buildFeatureDescriptor.getParameters();
+      CachedPublisher cachedPublisher = cachedPublishers.get(featureId);
+      if (cachedPublisher == null || !cachedPublisher.isCreatedFor(buildType, params)) {
+        CommitStatusPublisher publisher = myPublisherManager.createPublisher(buildType, featureId, params);
+        if (publisher == null) {
+          cachedPublishers.remove(featureId);
+          continue;
+        }
+        cachedPublisher = new CachedPublisher(publisher, params);
+        cachedPublishers.put(featureId, cachedPublisher);
+      }
+      publishers.put(featureId, cachedPublisher.getPublisher());
+    }
+    cachedPublishers.keySet().retainAll(publishers.keySet());
+    return publishers;
+  }
+
+  void invalidate(@NotNull SBuildType buildType) {
+    myPublishers.remove(buildType.getInternalId());
+  }
+
+  int size() {
+    return myPublishers.values().stream().mapToInt(Map::size).sum();
+  }
+
+  private static class CachedPublisher {
+    private final CommitStatusPublisher myPublisher;
+    private final Map<String, String> myParams;
+
+    private CachedPublisher(@NotNull CommitStatusPublisher publisher, @NotNull Map<String, String> params) {
+      myPublisher = publisher;
+      myParams = new HashMap<>(params);
+    }
+
+    @NotNull
+    CommitStatusPublisher getPublisher() {
+      return myPublisher;
+    }
+
+    boolean isCreatedFor(@NotNull SBuildType buildType, @NotNull Map<String, String> params) {
+      return myPublisher.getBuildType() == buildType && myParams.hashCode() == params.hashCode() && myParams.equals(params);
+    }
+  }
+}
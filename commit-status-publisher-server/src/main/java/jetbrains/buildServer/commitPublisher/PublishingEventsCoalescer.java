@@ -0,0 +1,102 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.commitPublisher.CommitStatusPublisher.Event;
+import org.jetbrains.annotations.NotNull;
+
+import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
+
+/**
+ * Keeps track of the build events which have been accepted, but not yet published,
+ * and drops the ones which are made obsolete by a newer event of the same build.
+ * Every event is published for all the revisions and publishers of the build,
+ * so collapsing by build collapses every (build, revision, feature) combination at once.
+ */
+class PublishingEventsCoalescer {
+
+  private final Map<Long, List<Event>> myPendingEvents = new HashMap<>();
+  private final AtomicLong myCollapsedEvents = new AtomicLong();
+
+  /**
+   * Registers the event as pending for the build and drops the pending events it supersedes
+   */
+  void offer(long buildId, @NotNull Event event) {
+    synchronized (myPendingEvents) {
+      List<Event> pendingEvents = myPendingEvents.computeIfAbsent(buildId, id -> new ArrayList<>());
+      Iterator<Event> i = pendingEvents.iterator();
+      while (i.hasNext()) {
+        Event pendingEvent = i.next();
+        if (supersedes(event, pendingEvent)) {
+          i.remove();
+          myCollapsedEvents.incrementAndGet();
+          LOG.debug("Event: " + pendingEvent.getName() + " for build id " + buildId + " is superseded by " + event.getName() + " and will not be published");
+        }
+      }
+      pendingEvents.add(event);
+    }
+  }
+
+  /**
+   * Takes the event from the pending ones before publishing it
+   * @return true if the event should be published, false if it has been superseded by a newer one
+   */
+  boolean take(long buildId, @NotNull Event event) {
+    synchronized (myPendingEvents) {
+      List<Event> pendingEvents = myPendingEvents.get(buildId);
+      if (pendingEvents == null) {
+        return false;
+      }
+      boolean isPending = pendingEvents.remove(event);
+      if (pendingEvents.isEmpty()) {
+        myPendingEvents.remove(buildId);
+      }
+      return isPending;
+    }
+  }
+
+  long getCollapsedEventsCount() {
+    return myCollapsedEvents.get();
+  }
+
+  int getPendingBuildsCount() {
+    synchronized (myPendingEvents) {
+      return myPendingEvents.size();
+    }
+  }
+
+  /**
+   * Only the final state of the build matters for the VCS host, so the event defining it makes
+   * the earlier intermediate events obsolete. Repeated events of the same type are published once.
+   * Otherwise an event of FIRST priority never supersedes anything, so the rules of {@link Event} priorities still hold.
+   */
+  static boolean supersedes(@NotNull Event newEvent, @NotNull Event pendingEvent) {
+    if (newEvent == pendingEvent) {
+      return true;
+    }
+    switch (newEvent) {
+      case FINISHED:
+        return pendingEvent == Event.STARTED || pendingEvent == Event.FAILURE_DETECTED || pendingEvent == Event.COMMENTED;
+      case INTERRUPTED:
+        return pendingEvent == Event.STARTED || pendingEvent == Event.FAILURE_DETECTED;
+      default:
+        return false;
+    }
+  }
+}
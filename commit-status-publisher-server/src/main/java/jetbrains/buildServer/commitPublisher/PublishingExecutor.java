@@ -0,0 +1,440 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
+
+/**
+ * Runs the publishing tasks on an executor shared with the rest of the server, limiting the number of its threads
+ * occupied by Commit Status Publisher at a time, so that slow VCS hosting services can not exhaust the shared executor.
+ * The tasks sent to a remote host are additionally limited by a bulkhead of that host: when it is full, the tasks wait
+ * in the bulkhead queue without occupying the threads, so an unresponsive host only consumes its own share of them.
+ * Waiting tasks are taken in the order of their {@link PublishingPriority} lanes; a task of a lower lane
+ * gains the priority of the upper lane after waiting for the aging interval, so it can not be starved forever.
+ * The tasks which do not fit into the queue wait in the {@link OverflowQueue} and are submitted again, through their lane
+ * and bulkhead, by the shared executor threads once there is room in the queue.
+ */
+class PublishingExecutor implements Executor {
+
+  final static String POOL_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.executor.poolSize";
+  final static String PER_HOST_LIMIT_PROPERTY_NAME = "teamcity.commitStatusPublisher.executor.perHostLimit";
+  final static String QUEUE_CAPACITY_PROPERTY_NAME = "teamcity.commitStatusPublisher.executor.queueCapacity";
+  final static String PRIORITY_AGING_PROPERTY_NAME = "teamcity.commitStatusPublisher.executor.priorityAging";
+  private final static int DEFAULT_POOL_SIZE = 10;
+  private final static int DEFAULT_PER_HOST_LIMIT = 4;
+  private final static int DEFAULT_QUEUE_CAPACITY = 10_000;
+  private final static long DEFAULT_PRIORITY_AGING_MS = 10_000;
+
+  private final Executor myExecutor;
+  private final Queue<PrioritizedTask> myQueue = new PriorityQueue<>();
+  private int myActiveCount = 0;
+  private boolean myShutdown = false;
+  private final OverflowQueue myOverflowQueue;
+  private final AtomicBoolean myDrainingOverflow = new AtomicBoolean();
+  private final ConcurrentMap<String, HostBulkhead> myBulkheads = new ConcurrentHashMap<>();
+  private final Map<PublishingPriority, AtomicInteger> myLaneDepths = new EnumMap<>(PublishingPriority.class);
+  private final AtomicLong myTasksSequence = new AtomicLong();
+
+  PublishingExecutor(@NotNull Executor executor, @NotNull OverflowQueue overflowQueue) {
+    myExecutor = executor;
+    myOverflowQueue = overflowQueue;
+    for (PublishingPriority priority : PublishingPriority.values()) {
+      myLaneDepths.put(priority, new AtomicInteger());
+    }
+  }
+
+  /**
+   * Runs the command in the {@link PublishingPriority#STARTED} lane
+   */
+  @Override
+  public void execute(@NotNull Runnable command) {
+    forPriority(PublishingPriority.STARTED).execute(command);
+  }
+
+  @NotNull
+  Executor forPriority(@NotNull PublishingPriority priority) {
+    return command -> {
+      PrioritizedTask task = new PrioritizedTask(command, priority, null);
+      if (!enqueue(task)) {
+        overflow(task);
+      }
+    };
+  }
+
+  /**
+   * @return executor which runs the tasks within the bulkhead of the host of the specified URL,
+   * or within the bulkhead shared by the publishers of the specified type if the URL is unknown
+   */
+  @NotNull
+  Executor forHost(@Nullable String serverUrl, @NotNull String publisherId, @NotNull PublishingPriority priority) {
+    String host = getHost(serverUrl);
+    String bulkheadKey = host != null ? host : publisherId;
+    return command -> {
+      HostBulkhead bulkhead = myBulkheads.computeIfAbsent(bulkheadKey, HostBulkhead::new);
+      bulkhead.execute(new PrioritizedTask(command, priority, bulkhead));
+    };
+  }
+
+  /**
+   * Never runs the task in the calling thread
+   * @return false if the queue is full or shut down, the caller should move the task to the overflow queue then
+   */
+  private boolean enqueue(@NotNull PrioritizedTask task) {
+    synchronized (myQueue) {
+      if (myShutdown || myQueue.size() >= getConfiguredQueueCapacity()) {
+        return false;
+      }
+      myQueue.add(task);
+    }
+    pump();
+    drainOverflow();
+    return true;
+  }
+
+  /**
+   * Frees the bulkhead slot of the task without taking the next waiting task, and moves the task to the overflow queue,
+   * from which it is submitted again through its lane and bulkhead
+   */
+  private void overflow(@NotNull PrioritizedTask task) {
+    LOG.debug("Commit status publishing executor can not accept a task, it is moved to the overflow queue");
+    task.dequeued();
+    if (task.myBulkhead != null) {
+      task.myBulkhead.releaseSlot();
+    }
+    myOverflowQueue.offer(new OverflowedTask(task.myCommand, task.myPriority, task.myBulkhead), task.myPriority);
+  }
+
+  /**
+   * Submits the tasks from the overflow queue again while there is room in the queue
+   */
+  private void drainOverflow() {
+    if (myOverflowQueue.size() == 0 || !myDrainingOverflow.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      while (hasRoom()) {
+        Runnable task = myOverflowQueue.poll();
+        if (task == null) {
+          return;
+        }
+        task.run();
+      }
+    } finally {
+      myDrainingOverflow.set(false);
+    }
+  }
+
+  private boolean hasRoom() {
+    synchronized (myQueue) {
+      return !myShutdown && myQueue.size() < getConfiguredQueueCapacity();
+    }
+  }
+
+  /**
+   * Passes the queued tasks to the shared executor until the configured number of them is running
+   */
+  private void pump() {
+    while (true) {
+      PrioritizedTask task;
+      synchronized (myQueue) {
+        if (myShutdown || myQueue.isEmpty() || myActiveCount >= getConfiguredPoolSize()) {
+          return;
+        }
+        task = myQueue.poll();
+        myActiveCount++;
+      }
+      try {
+        myExecutor.execute(() -> runTask(task));
+      } catch (RejectedExecutionException e) {
+        synchronized (myQueue) {
+          myActiveCount--;
+        }
+        overflow(task);
+        return;
+      }
+    }
+  }
+
+  private void runTask(@NotNull PrioritizedTask task) {
+    try {
+      task.run();
+    } catch (Throwable t) {
+      LOG.warnAndDebugDetails("Commit status publishing task has failed", t);
+    } finally {
+      synchronized (myQueue) {
+        myActiveCount--;
+      }
+      pump();
+      drainOverflow();
+    }
+  }
+
+  /**
+   * Drops the waiting tasks, the running ones are completed by the shared executor
+   */
+  void shutdown() {
+    List<PrioritizedTask> waiting;
+    synchronized (myQueue) {
+      myShutdown = true;
+      waiting = new ArrayList<>(myQueue);
+      myQueue.clear();
+    }
+    myOverflowQueue.shutdown();
+    waiting.forEach(PrioritizedTask::dropped);
+  }
+
+  /**
+   * @return maximum number of the publishing tasks running on the shared executor at a time
+   */
+  int getPoolSize() {
+    return getConfiguredPoolSize();
+  }
+
+  int getActiveCount() {
+    synchronized (myQueue) {
+      return myActiveCount;
+    }
+  }
+
+  int getQueuedCount() {
+    synchronized (myQueue) {
+      return myQueue.size();
+    }
+  }
+
+  /**
+   * @return number of tasks of every lane which are waiting to be run either in a bulkhead or in the pool queue
+   */
+  @NotNull
+  Map<PublishingPriority, Integer> getLaneDepths() {
+    Map<PublishingPriority, Integer> result = new EnumMap<>(PublishingPriority.class);
+    myLaneDepths.forEach((priority, depth) -> result.put(priority, depth.get()));
+    return result;
+  }
+
+  /**
+   * @return number of running tasks for every host
+   */
+  @NotNull
+  Map<String, Integer> getRunningPerHost() {
+    Map<String, Integer> result = new TreeMap<>();
+    myBulkheads.forEach((host, bulkhead) -> result.put(host, bulkhead.getRunningCount()));
+    return result;
+  }
+
+  /**
+   * @return number of tasks waiting for a free slot of the bulkhead for every host
+   */
+  @NotNull
+  Map<String, Integer> getWaitingPerHost() {
+    Map<String, Integer> result = new TreeMap<>();
+    myBulkheads.forEach((host, bulkhead) -> result.put(host, bulkhead.getWaitingCount()));
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "pool size: " + getPoolSize() + ", active: " + getActiveCount() + ", queued: " + getQueuedCount() +
+           ", waiting per lane: " + getLaneDepths() + ", running per host: " + getRunningPerHost() + ", waiting per host: " + getWaitingPerHost();
+  }
+
+  @Nullable
+  static String getHost(@Nullable String serverUrl) {
+    if (StringUtil.isEmptyOrSpaces(serverUrl)) {
+      return null;
+    }
+    try {
+      String host = new URI(serverUrl.trim()).getHost();
+      if (host != null) {
+        return host.toLowerCase(Locale.ENGLISH);
+      }
+    } catch (URISyntaxException ignored) {
+    }
+    return serverUrl.trim().toLowerCase(Locale.ENGLISH);
+  }
+
+  private static int getConfiguredPoolSize() {
+    return Math.max(1, TeamCityProperties.getInteger(POOL_SIZE_PROPERTY_NAME, DEFAULT_POOL_SIZE));
+  }
+
+  private static int getConfiguredQueueCapacity() {
+    return Math.max(1, TeamCityProperties.getInteger(QUEUE_CAPACITY_PROPERTY_NAME, DEFAULT_QUEUE_CAPACITY));
+  }
+
+  private static int getConfiguredPerHostLimit() {
+    return Math.max(1, TeamCityProperties.getInteger(PER_HOST_LIMIT_PROPERTY_NAME, DEFAULT_PER_HOST_LIMIT));
+  }
+
+  private class HostBulkhead {
+    private final String myHost;
+    private final Queue<PrioritizedTask> myWaiting = new PriorityQueue<>();
+    private int myRunning = 0;
+
+    private HostBulkhead(@NotNull String host) {
+      myHost = host;
+    }
+
+    void execute(@NotNull PrioritizedTask task) {
+      synchronized (this) {
+        myWaiting.add(task);
+      }
+      pump();
+    }
+
+    private void pump() {
+      while (true) {
+        PrioritizedTask task;
+        synchronized (this) {
+          if (myWaiting.isEmpty()) {
+            return;
+          }
+          if (myRunning >= getConfiguredPerHostLimit()) {
+            LOG.debug("Commit status publishing to " + myHost + " has reached the limit of concurrent tasks, " + myWaiting.size() + " task(s) waiting");
+            return;
+          }
+          task = myWaiting.poll();
+          myRunning++;
+        }
+        if (!enqueue(task)) {
+          overflow(task);
+        }
+      }
+    }
+
+    private void released() {
+      releaseSlot();
+      pump();
+    }
+
+    private synchronized void releaseSlot() {
+      myRunning--;
+    }
+
+    synchronized int getRunningCount() {
+      return myRunning;
+    }
+
+    synchronized int getWaitingCount() {
+      return myWaiting.size();
+    }
+  }
+
+  /**
+   * Task ordered by the time it was submitted shifted by the aging interval for every lane above its own
+   */
+  private class PrioritizedTask implements Runnable, OverflowQueue.Droppable, Comparable<PrioritizedTask> {
+    private final Runnable myCommand;
+    private final PublishingPriority myPriority;
+    private final HostBulkhead myBulkhead;
+    private final long myEffectiveTime;
+    private final long mySequence;
+    private final AtomicBoolean myDequeued = new AtomicBoolean();
+
+    private PrioritizedTask(@NotNull Runnable command, @NotNull PublishingPriority priority, @Nullable HostBulkhead bulkhead) {
+      myCommand = command;
+      myPriority = priority;
+      myBulkhead = bulkhead;
+      long agingMs = TeamCityProperties.getLong(PRIORITY_AGING_PROPERTY_NAME, DEFAULT_PRIORITY_AGING_MS);
+      myEffectiveTime = System.currentTimeMillis() + priority.ordinal() * agingMs;
+      mySequence = myTasksSequence.incrementAndGet();
+      myLaneDepths.get(priority).incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+      dequeued();
+      try {
+        myCommand.run();
+      } finally {
+        if (myBulkhead != null) {
+          myBulkhead.released();
+        }
+      }
+    }
+
+    @Override
+    public void dropped() {
+      dequeued();
+      try {
+        if (myCommand instanceof OverflowQueue.Droppable) {
+          ((OverflowQueue.Droppable)myCommand).dropped();
+        }
+      } finally {
+        if (myBulkhead != null) {
+          myBulkhead.released();
+        }
+      }
+    }
+
+    @Override
+    public int compareTo(@NotNull PrioritizedTask other) {
+      int result = Long.compare(myEffectiveTime, other.myEffectiveTime);
+      return result != 0 ? result : Long.compare(mySequence, other.mySequence);
+    }
+
+    private void dequeued() {
+      if (myDequeued.compareAndSet(false, true)) {
+        myLaneDepths.get(myPriority).decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Task moved to the overflow queue, which is submitted again through its lane and bulkhead when taken from the queue
+   */
+  private class OverflowedTask implements Runnable, OverflowQueue.Droppable {
+    private final Runnable myCommand;
+    private final PublishingPriority myPriority;
+    private final HostBulkhead myBulkhead;
+
+    private OverflowedTask(@NotNull Runnable command, @NotNull PublishingPriority priority, @Nullable HostBulkhead bulkhead) {
+      myCommand = command;
+      myPriority = priority;
+      myBulkhead = bulkhead;
+    }
+
+    @Override
+    public void run() {
+      PrioritizedTask task = new PrioritizedTask(myCommand, myPriority, myBulkhead);
+      if (myBulkhead != null) {
+        myBulkhead.execute(task);
+      } else if (!enqueue(task)) {
+        overflow(task);
+      }
+    }
+
+    @Override
+    public void dropped() {
+      if (myCommand instanceof OverflowQueue.Droppable) {
+        ((OverflowQueue.Droppable)myCommand).dropped();
+      }
+    }
+  }
+}
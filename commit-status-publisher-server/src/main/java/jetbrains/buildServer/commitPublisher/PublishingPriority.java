@@ -0,0 +1,45 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import jetbrains.buildServer.commitPublisher.CommitStatusPublisher.Event;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Priority lanes of the publishing tasks. The statuses defining the result of a build are the most valuable
+ * for the users, the statuses of the queued builds are the least valuable and the most numerous.
+ */
+enum PublishingPriority {
+  TERMINAL, STARTED, QUEUED;
+
+  @NotNull
+  static PublishingPriority of(@NotNull Event event) {
+    switch (event) {
+      case FINISHED:
+      case INTERRUPTED:
+      case FAILURE_DETECTED:
+      case MARKED_AS_SUCCESSFUL:
+        return TERMINAL;
+      case QUEUED:
+      case REMOVED_FROM_QUEUE:
+        return QUEUED;
+      default:
+        return STARTED;
+    }
+  }
+}
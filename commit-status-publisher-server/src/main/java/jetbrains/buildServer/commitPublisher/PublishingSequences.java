@@ -0,0 +1,80 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Issues sequence numbers for the publishing tasks of a build and remembers the newest sequence number
+ * published for every feature and revision of the build, so that a task which has been overtaken by a newer one
+ * (e.g. when the tasks are run by different executor threads) does not overwrite the newer status.
+ * The tasks of a build are submitted and run by the node responsible for the build, so the state is kept in memory
+ * of that node and nothing is written on the publishing path. The ordering is guaranteed within a single node only:
+ * a node which becomes responsible for the build starts without the state and publishes the tasks in the order they run.
+ * The state is kept after the terminal event, as a late event may still arrive then, and expires when not used for a long time.
+ */
+class PublishingSequences {
+
+  private static final int MAX_TRACKED_BUILDS = 10_000;
+
+  private final Cache<Long, BuildSequences> myBuilds = CacheBuilder.newBuilder()
+                                                                   .maximumSize(MAX_TRACKED_BUILDS)
+                                                                   .expireAfterAccess(1, TimeUnit.DAYS)
+                                                                   .build();
+
+  /**
+   * @return sequence number greater than the ones issued for the promotion before
+   */
+  long next(long promotionId) {
+    return getBuild(promotionId).myLastIssued.incrementAndGet();
+  }
+
+  /**
+   * Marks the sequence number as published for the promotion and the key unless a newer one has been published already.
+   * @return false if the task with the sequence number is stale and should not be published
+   */
+  boolean advance(long promotionId, @NotNull String key, long sequence) {
+    Long published = getBuild(promotionId).myPublished.merge(key, sequence, Math::max);
+    return published == sequence;
+  }
+
+  long size() {
+    return myBuilds.size();
+  }
+
+  @NotNull
+  private BuildSequences getBuild(long promotionId) {
+    try {
+      return myBuilds.get(promotionId, BuildSequences::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static class BuildSequences {
+    private final AtomicLong myLastIssued = new AtomicLong();
+    private final ConcurrentMap<String, Long> myPublished = new ConcurrentHashMap<>();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.*;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.vcs.VcsRootInstanceEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static jetbrains.buildServer.commitPublisher.CommitStatusPublisherListener.PUBLISHING_ENABLED_PROPERTY_NAME;
+
+/**
+ * Immutable view of the commit status publishing settings of a build type, which
+ * is computed once and then reused until the settings of the build type, its project or its VCS roots change.
+ * The checkout rules are not a part of the snapshot, they are taken from every build promotion.
+ */
+class PublishingSettingsSnapshot {
+
+  private final SBuildType myBuildType;
+  private final String myPublishingEnabledParam;
+  private final boolean myFeatureConfigured;
+  private final List<String> myPublisherVcsRootIds;
+
+  private PublishingSettingsSnapshot(@NotNull SBuildType buildType,
+                                     @Nullable String publishingEnabledParam,
+                                     boolean featureConfigured,
+                                     @NotNull Map<String, CommitStatusPublisher> publishers) {
+    myBuildType = buildType;
+    myPublishingEnabledParam = publishingEnabledParam;
+    myFeatureConfigured = featureConfigured;
+    List<String> publisherVcsRootIds = new ArrayList<>();
+    publishers.values().forEach(publisher -> publisherVcsRootIds.add(publisher.getVcsRootId()));
+    myPublisherVcsRootIds = Collections.unmodifiableList(publisherVcsRootIds);
+  }
+
+  @NotNull
+  static PublishingSettingsSnapshot create(@NotNull SBuildType buildType, boolean featureConfigured, @NotNull Map<String, CommitStatusPublisher> publishers) {
+    return new PublishingSettingsSnapshot(buildType, buildType.getParameterValue(PUBLISHING_ENABLED_PROPERTY_NAME), featureConfigured, publishers);
+  }
+
+  boolean isCreatedFor(@NotNull SBuildType buildType) {
+    return myBuildType == buildType;
+  }
+
+  boolean isPublishingEnabled() {
+    if (myPublishingEnabledParam == null) {
+      return TeamCityProperties.getBooleanOrTrue(PUBLISHING_ENABLED_PROPERTY_NAME);
+    }
+    return !Boolean.FALSE.toString().equalsIgnoreCase(myPublishingEnabledParam);
+  }
+
+  boolean isFeatureConfigured() {
+    return myFeatureConfigured;
+  }
+
+  /**
+   * Changes of a queued build should be collected in advance if some of its publishers
+   * may need to publish the queued status for the revision affected by checkout rules of the build promotion
+   */
+  boolean isChangesCollectionRequired(@NotNull BuildPromotion buildPromotion) {
+    if (!myFeatureConfigured || !isPublishingEnabled() || myPublisherVcsRootIds.isEmpty()) {
+      return false;
+    }
+    Map<String, Boolean> includeAllRulesByVcsRootId = new HashMap<>();
+    for (VcsRootInstanceEntry entry : buildPromotion.getVcsRootEntries()) {
+      includeAllRulesByVcsRootId.merge(entry.getVcsRoot().getExternalId(), entry.getCheckoutRules().isIncludeAll(), Boolean::logicalAnd);
+    }
+    for (String vcsRootId : myPublisherVcsRootIds) {
+      boolean onlyIncludeAllRules = vcsRootId == null ? !includeAllRulesByVcsRootId.containsValue(Boolean.FALSE)
+                                                      : includeAllRulesByVcsRootId.getOrDefault(vcsRootId, Boolean.TRUE);
+      if (!onlyIncludeAllRules) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps track of the queued promotions which the queued status of a commit status context and revision belongs to.
+ * When several promotions of the same build type are queued for the same revision, they share one status on the VCS host:
+ * only the first of them publishes it, and it is replaced on removal from the queue only after the last of them has left the queue.
+ * Callers are expected to serialize the calls for the same key.
+ */
+class QueuedStatusOwners {
+
+  final static String MAX_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.queuedStatusOwners.maxSize";
+
+  private final Cache<String, Set<Long>> myOwners = CacheBuilder.newBuilder()
+                                                                .maximumSize(TeamCityProperties.getInteger(MAX_SIZE_PROPERTY_NAME, 100_000))
+                                                                .expireAfterAccess(1, TimeUnit.DAYS)
+                                                                .build();
+  private final AtomicLong mySharedCount = new AtomicLong();
+  private final AtomicLong myRetainedCount = new AtomicLong();
+
+  /**
+   * Registers the promotion as the one waiting in the queue with the queued status for the key
+   * @param isQueued checks if a promotion is still in the queue
+   * @return true if the promotion should publish the queued status, false if the status has already been published for another queued promotion
+   */
+  boolean register(@NotNull String key, long promotionId, @NotNull LongPredicate isQueued) {
+    Set<Long> owners = myOwners.asMap().computeIfAbsent(key, k -> new LinkedHashSet<>());
+    synchronized (owners) {
+      owners.removeIf(id -> id != promotionId && !isQueued.test(id));
+      owners.add(promotionId);
+      if (owners.iterator().next() == promotionId) {
+        return true;
+      }
+      mySharedCount.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Unregisters the promotion which has left the queue
+   * @param isQueued checks if a promotion is still in the queue
+   * @return true if the queued status for the key can be replaced, false if another promotion with the same status is still queued
+   */
+  boolean unregister(@NotNull String key, long promotionId, @NotNull LongPredicate isQueued) {
+    Set<Long> owners = myOwners.getIfPresent(key);
+    if (owners == null) {
+      return true;
+    }
+    synchronized (owners) {
+      owners.remove(promotionId);
+      owners.removeIf(id -> !isQueued.test(id));
+      if (owners.isEmpty()) {
+        myOwners.asMap().remove(key, owners);
+        return true;
+      }
+      myRetainedCount.incrementAndGet();
+      return false;
+    }
+  }
+
+  long size() {
+    return myOwners.size();
+  }
+
+  /**
+   * @return number of promotions which have not published the queued status because another queued promotion has published it
+   */
+  long getSharedCount() {
+    return mySharedCount.get();
+  }
+
+  /**
+   * @return number of promotions which have left the queue without replacing the queued status still owned by another queued promotion
+   */
+  long getRetainedCount() {
+    return myRetainedCount.get();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.Used;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Remembers the build promotions which the queued status has been published for, together with the time of publishing,
+ * until the promotion is removed from the queue or started. Promotions which stay tracked after they have left
+ * the queue lost their removal event, so their queued statuses have to be replaced.
+ */
+class QueuedStatusesTracker {
+
+  final static String MAX_SIZE_PROPERTY_NAME = "teamcity.commitStatusPublisher.queuedStatusesTracker.maxSize";
+
+  private final ConcurrentMap<Long, Long> myPublishTimes = new ConcurrentHashMap<>();
+  private final AtomicLong myNotTrackedCount = new AtomicLong();
+  private final IntSupplier myMaxSize;
+
+  QueuedStatusesTracker() {
+    this(() -> TeamCityProperties.getInteger(MAX_SIZE_PROPERTY_NAME, 100_000));
+  }
+
+  @Used("tests")
+  QueuedStatusesTracker(@NotNull IntSupplier maxSize) {
+    myMaxSize = maxSize;
+  }
+
+  /**
+   * @return true if the promotion has not been tracked before and is tracked now
+   */
+  boolean track(long promotionId, long publishTime) {
+    if (myPublishTimes.size() >= myMaxSize.getAsInt() && !myPublishTimes.containsKey(promotionId)) {
+      myNotTrackedCount.incrementAndGet();
+      return false;
+    }
+    return myPublishTimes.putIfAbsent(promotionId, publishTime) == null;
+  }
+
+  /**
+   * @return true if the promotion has been tracked
+   */
+  boolean untrack(long promotionId) {
+    return myPublishTimes.remove(promotionId) != null;
+  }
+
+  /**
+   * @return ids of the promotions which queued status was published before the specified time, the oldest first
+   */
+  @NotNull
+  List<Long> getPublishedBefore(long time) {
+    return myPublishTimes.entrySet().stream()
+                         .filter(e -> e.getValue() < time)
+                         .sorted(Map.Entry.comparingByValue())
+                         .map(Map.Entry::getKey)
+                         .collect(Collectors.toList());
+  }
+
+  boolean isTracked(long promotionId) {
+    return myPublishTimes.containsKey(promotionId);
+  }
+
+  int size() {
+    return myPublishTimes.size();
+  }
+
+  long getNotTrackedCount() {
+    return myNotTrackedCount.get();
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
+
+/**
+ * Packs the ids of the build promotions queued statuses should be published for into the string argument
+ * of a single task, so that a trigger storm produces a few tasks instead of one task per queued build.
+ */
+class QueuedTasksBatch {
+
+  private static final String SEPARATOR = ",";
+
+  private QueuedTasksBatch() {
+  }
+
+  /**
+   * @return string arguments of the batch tasks, each one containing no more than the specified number of ids
+   */
+  @NotNull
+  static List<String> encode(@NotNull Collection<Long> promotionIds, int maxBatchSize) {
+    int batchSize = Math.max(1, maxBatchSize);
+    List<String> batches = new ArrayList<>();
+    StringBuilder batch = new StringBuilder();
+    int idsInBatch = 0;
+    for (Long promotionId : promotionIds) {
+      if (idsInBatch == batchSize) {
+        batches.add(batch.toString());
+        batch.setLength(0);
+        idsInBatch = 0;
+      }
+      if (idsInBatch > 0) {
+        batch.append(SEPARATOR);
+      }
+      batch.append(promotionId);
+      idsInBatch++;
+    }
+    if (idsInBatch > 0) {
+      batches.add(batch.toString());
+    }
+    return batches;
+  }
+
+  /**
+   * @return identity of the batch task, different batches get different identities, so that the tasks are not merged
+   */
+  @NotNull
+  static String getIdentity(@NotNull String batch) {
+    int separatorIndex = batch.indexOf(SEPARATOR);
+    String firstId = separatorIndex < 0 ? batch : batch.substring(0, separatorIndex);
+    int idsCount = batch.isEmpty() ? 0 : batch.split(SEPARATOR).length;
+    return firstId + ":" + idsCount + ":" + Hashing.sha256().hashString(batch, StandardCharsets.UTF_8);
+  }
+
+  @NotNull
+  static List<Long> decode(@Nullable String batch) {
+    List<Long> promotionIds = new ArrayList<>();
+    if (StringUtil.isEmptyOrSpaces(batch)) {
+      return promotionIds;
+    }
+    for (String id : batch.split(SEPARATOR)) {
+      try {
+        promotionIds.add(Long.parseLong(id.trim()));
+      } catch (NumberFormatException e) {
+        LOG.warn("Unexpected build promotion id \"" + id + "\" in queued statuses publishing task");
+      }
+    }
+    return promotionIds;
+  }
+}
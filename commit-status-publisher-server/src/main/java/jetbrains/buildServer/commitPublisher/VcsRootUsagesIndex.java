@@ -0,0 +1,150 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.vcs.CheckoutRules;
+import jetbrains.buildServer.vcs.VcsRoot;
+import jetbrains.buildServer.vcs.VcsRootInstance;
+import jetbrains.buildServer.vcs.VcsRootInstanceEx;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Index from VCS root instance to the build types which use it and have commit status publishing configured.
+ * The roots of the active build types are indexed after the server startup, the other roots are indexed on first access;
+ * a root is re-indexed after the settings of any build type using it change,
+ * so processing of a modification only evaluates the relevant build types instead of all the usages of the root.
+ */
+class VcsRootUsagesIndex {
+
+  private final Predicate<SBuildType> myIsPublishingConfigured;
+  private final ConcurrentMap<Long, List<RootUsage>> myUsages = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Set<Long>> myIndexedRootsOfBuildType = new ConcurrentHashMap<>();
+  private final AtomicLong myVersion = new AtomicLong();
+
+  VcsRootUsagesIndex(@NotNull Predicate<SBuildType> isPublishingConfigured) {
+    myIsPublishingConfigured = isPublishingConfigured;
+  }
+
+  @NotNull
+  List<RootUsage> getUsages(@NotNull VcsRoot root) {
+    long rootId = root.getId();
+    List<RootUsage> usages = myUsages.get(rootId);
+    if (usages != null) {
+      return usages;
+    }
+    long version = myVersion.get();
+    usages = collectUsages(root);
+    myUsages.put(rootId, usages);
+    if (version != myVersion.get()) {
+      // settings have changed while the usages were being collected, they may be outdated already
+      myUsages.remove(rootId, usages);
+    }
+    return usages;
+  }
+
+  /**
+   * Indexes the roots used by the build types in advance, so the modifications of the roots without commit status publishing
+   * are filtered out as they are detected rather than processed to index the root
+   */
+  void warmUp(@NotNull Collection<SBuildType> buildTypes) {
+    Set<Long> visitedRoots = new HashSet<>();
+    for (SBuildType buildType : buildTypes) {
+      for (VcsRootInstance root : buildType.getVcsRootInstances()) {
+        if (visitedRoots.add(root.getId())) {
+          getUsages(root);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return usages of the root if it is indexed already, null otherwise
+   */
+  @Nullable
+  List<RootUsage> getIndexedUsages(@NotNull VcsRoot root) {
+    return myUsages.get(root.getId());
+  }
+
+  /**
+   * Drops the roots which the build type used before and uses now, so they are re-indexed on the next access
+   */
+  void invalidate(@NotNull SBuildType buildType) {
+    myVersion.incrementAndGet();
+    Set<Long> indexedRoots = myIndexedRootsOfBuildType.remove(buildType.getInternalId());
+    if (indexedRoots != null) {
+      indexedRoots.forEach(myUsages::remove);
+    }
+    for (VcsRootInstance root : buildType.getVcsRootInstances()) {
+      myUsages.remove(root.getId());
+    }
+  }
+
+  int size() {
+    return myUsages.size();
+  }
+
+  @NotNull
+  private List<RootUsage> collectUsages(@NotNull VcsRoot root) {
+    if (!(root instanceof VcsRootInstanceEx)) {
+      return Collections.emptyList();
+    }
+    List<RootUsage> usages = new ArrayList<>();
+    for (Map.Entry<SBuildType, CheckoutRules> btToRules : ((VcsRootInstanceEx)root).getUsages().entrySet()) {
+      SBuildType buildType = btToRules.getKey();
+      if (myIsPublishingConfigured.test(buildType)) {
+        usages.add(new RootUsage(buildType, btToRules.getValue()));
+        myIndexedRootsOfBuildType.computeIfAbsent(buildType.getInternalId(), id -> ConcurrentHashMap.newKeySet()).add(root.getId());
+      }
+    }
+    return usages.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(usages);
+  }
+
+  static class RootUsage {
+    private final SBuildType myBuildType;
+    private final CheckoutRules myCheckoutRules;
+    private final CheckoutRulesMatcher myCheckoutRulesMatcher;
+
+    private RootUsage(@NotNull SBuildType buildType, @NotNull CheckoutRules checkoutRules) {
+      myBuildType = buildType;
+      myCheckoutRules = checkoutRules;
+      myCheckoutRulesMatcher = CheckoutRulesMatcher.compile(checkoutRules);
+    }
+
+    @NotNull
+    SBuildType getBuildType() {
+      return myBuildType;
+    }
+
+    @NotNull
+    CheckoutRules getCheckoutRules() {
+      return myCheckoutRules;
+    }
+
+    @NotNull
+    CheckoutRulesMatcher getCheckoutRulesMatcher() {
+      return myCheckoutRulesMatcher;
+    }
+  }
+}
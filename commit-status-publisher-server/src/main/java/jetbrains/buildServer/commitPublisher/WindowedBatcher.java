@@ -0,0 +1,131 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import org.jetbrains.annotations.NotNull;
+
+import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
+
+/**
+ * Collects the items arriving within a time window after the first one and passes them to the consumer as one batch.
+ * With a non-positive window, or if the flush can not be scheduled, every item is passed to the consumer right away in the calling thread.
+ */
+class WindowedBatcher<T> {
+
+  private final String myName;
+  private final LongSupplier myWindowMs;
+  private final Consumer<List<T>> myConsumer;
+  private final AtomicLong myBatchesCount = new AtomicLong();
+  private final AtomicLong myItemsCount = new AtomicLong();
+  private final AtomicLong myMaxBatchSize = new AtomicLong();
+  private List<T> myPending = new ArrayList<>();
+  private long myWindowStart = 0;
+  private final ScheduledExecutorService myScheduler;
+  private boolean myShutdown = false;
+
+  WindowedBatcher(@NotNull String name, @NotNull ScheduledExecutorService scheduler, @NotNull LongSupplier windowMs, @NotNull Consumer<List<T>> consumer) {
+    myName = name;
+    myScheduler = scheduler;
+    myWindowMs = windowMs;
+    myConsumer = consumer;
+  }
+
+  void add(@NotNull T item) {
+    long window = myWindowMs.getAsLong();
+    boolean rejected = false;
+    synchronized (this) {
+      if (window > 0 && !myShutdown) {
+        myPending.add(item);
+        if (myPending.size() == 1) {
+          myWindowStart = System.currentTimeMillis();
+          try {
+            myScheduler.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+          } catch (RejectedExecutionException e) {
+            // no flush would ever process the pending item
+            LOG.debug(myName + ": failed to schedule processing of the collected items, the item is processed right away");
+            myPending = new ArrayList<>();
+            rejected = true;
+          }
+        }
+        if (!rejected) {
+          return;
+        }
+      }
+    }
+    accept(Collections.singletonList(item), 0);
+  }
+
+  /**
+   * Stops collecting new batches, the pending batch is still processed when its window ends
+   */
+  void shutdown() {
+    synchronized (this) {
+      myShutdown = true;
+    }
+  }
+
+  long getBatchesCount() {
+    return myBatchesCount.get();
+  }
+
+  long getMaxBatchSize() {
+    return myMaxBatchSize.get();
+  }
+
+  double getAverageBatchSize() {
+    long batches = myBatchesCount.get();
+    return batches == 0 ? 0 : (double)myItemsCount.get() / batches;
+  }
+
+  private void flush() {
+    List<T> batch;
+    long window;
+    synchronized (this) {
+      batch = myPending;
+      window = System.currentTimeMillis() - myWindowStart;
+      myPending = new ArrayList<>();
+    }
+    if (!batch.isEmpty()) {
+      accept(batch, window);
+    }
+  }
+
+  private void accept(@NotNull List<T> batch, long window) {
+    myBatchesCount.incrementAndGet();
+    myItemsCount.addAndGet(batch.size());
+    myMaxBatchSize.accumulateAndGet(batch.size(), Math::max);
+    if (LOG.isDebugEnabled() && batch.size() > 1) {
+      LOG.debug(myName + ": processing " + batch.size() + " items collected within " + window + "ms, average batch size: " + getAverageBatchSize() +
+                ", max batch size: " + getMaxBatchSize());
+    }
+    try {
+      myConsumer.accept(batch);
+    } catch (Throwable t) {
+      LOG.warnAndDebugDetails(myName + ": failed to process " + batch.size() + " items", t);
+    }
+  }
+}
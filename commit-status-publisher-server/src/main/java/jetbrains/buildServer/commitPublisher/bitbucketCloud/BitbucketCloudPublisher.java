@@ -31,7 +31,7 @@ import org.jetbrains.annotations.Nullable;
 import static jetbrains.buildServer.commitPublisher.LoggerUtil.LOG;
 
 class BitbucketCloudPublisher extends HttpBasedCommitStatusPublisher {
-  private String myBaseUrl = BitbucketCloudSettings.DEFAULT_API_URL;
+  private volatile String myBaseUrl = BitbucketCloudSettings.DEFAULT_API_URL;
   private final Gson myGson = new Gson();
 
   BitbucketCloudPublisher(@NotNull CommitStatusPublisherSettings settings,
@@ -53,6 +53,12 @@ class BitbucketCloudPublisher extends HttpBasedCommitStatusPublisher {
     return Constants.BITBUCKET_PUBLISHER_ID;
   }
 
+  @Nullable
+  @Override
+  public String getServerUrl() {
+    return getBaseUrl();
+  }
+
   @Override
   public boolean buildQueued(@NotNull BuildPromotion buildPromotion,
                              @NotNull BuildRevision revision,
@@ -69,16 +75,14 @@ class BitbucketCloudPublisher extends HttpBasedCommitStatusPublisher {
   }
 
   public boolean buildStarted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    vote(build, revision, BitbucketCloudBuildStatus.INPROGRESS, DefaultStatusMessages.BUILD_STARTED);
-    return true;
+    return vote(build, revision, BitbucketCloudBuildStatus.INPROGRESS, DefaultStatusMessages.BUILD_STARTED);
   }
 
   @Override
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
     BitbucketCloudBuildStatus status = build.getBuildStatus().isSuccessful() ? BitbucketCloudBuildStatus.SUCCESSFUL : BitbucketCloudBuildStatus.FAILED;
     String description = build.getStatusDescriptor().getText();
-    vote(build, revision, status, description);
-    return true;
+    return vote(build, revision, status, description);
   }
 
   @Override
@@ -94,26 +98,22 @@ class BitbucketCloudPublisher extends HttpBasedCommitStatusPublisher {
     if (user != null && comment != null) {
       description += " with a comment by " + user.getExtendedName() + ": \"" + comment + "\"";
     }
-    vote(build, revision, status, description);
-    return true;
+    return vote(build, revision, status, description);
   }
 
   @Override
   public boolean buildMarkedAsSuccessful(@NotNull SBuild build, @NotNull BuildRevision revision, boolean buildInProgress) throws PublisherException {
-    vote(build, revision, buildInProgress ? BitbucketCloudBuildStatus.INPROGRESS : BitbucketCloudBuildStatus.SUCCESSFUL, DefaultStatusMessages.BUILD_MARKED_SUCCESSFULL);
-    return true;
+    return vote(build, revision, buildInProgress ? BitbucketCloudBuildStatus.INPROGRESS : BitbucketCloudBuildStatus.SUCCESSFUL, DefaultStatusMessages.BUILD_MARKED_SUCCESSFULL);
   }
 
   @Override
   public boolean buildInterrupted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    vote(build, revision, BitbucketCloudBuildStatus.STOPPED, build.getStatusDescriptor().getText());
-    return true;
+    return vote(build, revision, BitbucketCloudBuildStatus.STOPPED, build.getStatusDescriptor().getText());
   }
 
   @Override
   public boolean buildFailureDetected(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    vote(build, revision, BitbucketCloudBuildStatus.FAILED, build.getStatusDescriptor().getText());
-    return true;
+    return vote(build, revision, BitbucketCloudBuildStatus.FAILED, build.getStatusDescriptor().getText());
   }
 
   @Override
@@ -204,8 +204,7 @@ class BitbucketCloudPublisher extends HttpBasedCommitStatusPublisher {
     if (repository == null) {
       throw new PublisherException(String.format("Bitbucket publisher has failed to parse repository URL from VCS root '%s'", root.getName()));
     }
-    vote(revision.getRevision(), buildStatus, repository, LogUtil.describe(buildPromotion));
-    return true;
+    return vote(revision.getRevision(), buildStatus, repository, LogUtil.describe(buildPromotion));
   }
 
   private String getBuildName(BuildPromotion buildPromotion) {
@@ -216,10 +215,10 @@ class BitbucketCloudPublisher extends HttpBasedCommitStatusPublisher {
     return buildPromotion.getBuildTypeExternalId();
   }
 
-  private void vote(@NotNull SBuild build,
-                    @NotNull BuildRevision revision,
-                    @NotNull BitbucketCloudBuildStatus status,
-                    @NotNull String comment) throws PublisherException {
+  private boolean vote(@NotNull SBuild build,
+                       @NotNull BuildRevision revision,
+                       @NotNull BitbucketCloudBuildStatus status,
+                       @NotNull String comment) throws PublisherException {
     final VcsRootInstance root = revision.getRoot();
     Repository repository = BitbucketCloudSettings.VCS_PROPERTIES_PARSER.parseRepository(root);
     if (repository == null) {
@@ -228,14 +227,14 @@ class BitbucketCloudPublisher extends HttpBasedCommitStatusPublisher {
     BitbucketCloudCommitBuildStatus buildStatus = new BitbucketCloudCommitBuildStatus(build.getBuildPromotion().getBuildTypeId(), status.name(), getBuildName(build), comment,
                                                                                       getViewUrl(build)
     );
-    vote(revision.getRevision(), buildStatus, repository, LogUtil.describe(build));
+    return vote(revision.getRevision(), buildStatus, repository, LogUtil.describe(build));
   }
 
-  private void vote(@NotNull String commit, @NotNull BitbucketCloudCommitBuildStatus status, @NotNull Repository repository, @NotNull String buildDescription) {
+  private boolean vote(@NotNull String commit, @NotNull BitbucketCloudCommitBuildStatus status, @NotNull Repository repository, @NotNull String buildDescription) {
     String data = myGson.toJson(status);
     LOG.debug(getBaseUrl() + " :: " + commit + " :: " + data);
     String url = getBaseUrl() + "2.0/repositories/" + repository.owner() + "/" + repository.repositoryName() + "/commit/" + commit + "/statuses/build";
-    postJson(url, getUsername(), getPassword(), data, null, buildDescription);
+    return postJson(url, getUsername(), getPassword(), data, null, buildDescription);
   }
 
   @Override
@@ -21,6 +21,7 @@ import jetbrains.buildServer.commitPublisher.*;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.ssh.ServerSshKeyManager;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 class GerritPublisher extends BaseCommitStatusPublisher {
 
@@ -49,11 +50,17 @@ class GerritPublisher extends BaseCommitStatusPublisher {
     return Constants.GERRIT_PUBLISHER_ID;
   }
 
+  @Nullable
+  @Override
+  public String getServerUrl() {
+    return getGerritServer();
+  }
+
   @Override
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
     Branch branch = build.getBranch();
     if (branch == null || branch.isDefaultBranch())
-      return false;
+      return true;
 
     String vote = build.getBuildStatus().isSuccessful() ? getSuccessVote() : getFailureVote();
     String msg = build.getFullName() +
@@ -63,7 +70,7 @@ class GerritPublisher extends BaseCommitStatusPublisher {
 
     try {
       SBuildType bt = build.getBuildType();
-      if (null == bt) return false;
+      if (null == bt) return true;
 
       myGerritClient.review(
         new GerritConnectionDetails(bt.getProject(), getGerritProject(), getGerritServer(), getUsername(),
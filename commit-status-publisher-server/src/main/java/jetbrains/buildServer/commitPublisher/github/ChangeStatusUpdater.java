@@ -110,17 +110,17 @@ public class ChangeStatusUpdater {
 
     return new Handler() {
 
-      public void changeStarted(@NotNull BuildRevision revision, @NotNull SBuild build, @NotNull String viewUrl) throws PublisherException {
-        doChangeUpdate(revision, build, DefaultStatusMessages.BUILD_STARTED, GitHubChangeState.Pending, viewUrl);
+      public boolean changeStarted(@NotNull BuildRevision revision, @NotNull SBuild build, @NotNull String viewUrl) throws PublisherException {
+        return doChangeUpdate(revision, build, DefaultStatusMessages.BUILD_STARTED, GitHubChangeState.Pending, viewUrl);
       }
 
-      public void changeCompleted(@NotNull BuildRevision revision, @NotNull SBuild build, @NotNull String viewUrl) throws PublisherException {
+      public boolean changeCompleted(@NotNull BuildRevision revision, @NotNull SBuild build, @NotNull String viewUrl) throws PublisherException {
         LOG.debug("Status :" + build.getStatusDescriptor().getStatus().getText());
         LOG.debug("Status Priority:" + build.getStatusDescriptor().getStatus().getPriority());
 
         final GitHubChangeState status = getGitHubChangeState(build);
         final String text = getGitHubChangeText(build);
-        doChangeUpdate(revision, build, text, status, viewUrl);
+        return doChangeUpdate(revision, build, text, status, viewUrl);
       }
 
       @Override
@@ -178,11 +178,11 @@ public class ChangeStatusUpdater {
         return null;
       }
 
-      private void doChangeUpdate(@NotNull final BuildRevision revision,
-                                  @NotNull final SBuild build,
-                                  @NotNull final String message,
-                                  @NotNull final GitHubChangeState targetStatus,
-                                  @NotNull String viewUrl) throws PublisherException {
+      private boolean doChangeUpdate(@NotNull final BuildRevision revision,
+                                     @NotNull final SBuild build,
+                                     @NotNull final String message,
+                                     @NotNull final GitHubChangeState targetStatus,
+                                     @NotNull String viewUrl) throws PublisherException {
         final RepositoryVersion version = revision.getRepositoryVersion();
         LOG.info("Scheduling GitHub status update for " +
                  "hash: " + version.getVersion() + ", " +
@@ -193,7 +193,7 @@ public class ChangeStatusUpdater {
         Repository repo = parseRepository(root);
 
         GitHubStatusClient statusClient = new GitHubStatusClient(params, publisher);
-        statusClient.update(revision, build, message, targetStatus, repo, viewUrl);
+        return statusClient.update(revision, build, message, targetStatus, repo, viewUrl);
       }
 
       private boolean doQueuedChangeUpdate(@NotNull BuildRevision revision,
@@ -322,7 +322,7 @@ public class ChangeStatusUpdater {
       String buildIdentificator = queuedBuild != null ? "queuedBuildId: " + queuedBuild.getItemId() : "buildPromotionId: " + buildPromotion.getId();
       final String hash = resolveCommitHash(version, repo, targetStatus, buildIdentificator);
       if (isHashInvalid(hash, version, revision.getRoot(), buildIdentificator)) {
-        return false;
+        return true;
       }
 
       String compiledMessage = additionalTaskInfo.getComment();
@@ -353,12 +353,12 @@ public class ChangeStatusUpdater {
       super(params, publisher);
     }
 
-    public void update(BuildRevision revision, SBuild build, String message, GitHubChangeState targetStatus, Repository repo, String viewUrl) {
+    public boolean update(BuildRevision revision, SBuild build, String message, GitHubChangeState targetStatus, Repository repo, String viewUrl) {
       final RepositoryVersion version = revision.getRepositoryVersion();
       String buildIdentififcator = "buildId: " + build.getBuildId();
       final String hash = resolveCommitHash(version, repo, targetStatus, buildIdentififcator);
       if (isHashInvalid(hash, version, revision.getRoot(), buildIdentififcator)) {
-        return;
+        return true;
       }
 
       final CommitStatusPublisherProblems problems = myPublisher.getProblems();
@@ -366,6 +366,7 @@ public class ChangeStatusUpdater {
         changeStatus(build, repo, hash, version, message, targetStatus, viewUrl);
       } catch (IOException e) {
         problems.reportProblem(String.format("Commit Status Publisher error. GitHub status: '%s'", targetStatus), myPublisher, LogUtil.describe(build), myPublisher.getServerUrl(), e, LOG);
+        return false;
       }
 
       if (myAddComment) {
@@ -376,6 +377,7 @@ public class ChangeStatusUpdater {
           problems.reportProblem("Commit Status Publisher has failed to add a comment", myPublisher, LogUtil.describe(build), null, e, LOG);
         }
       }
+      return true;
     }
 
     private void changeStatus(SBuild build,
@@ -467,8 +469,8 @@ public class ChangeStatusUpdater {
   }
 
   interface Handler {
-    void changeStarted(@NotNull final BuildRevision revision, @NotNull final SBuild build, @NotNull String viewUrl) throws PublisherException;
-    void changeCompleted(@NotNull final BuildRevision revision, @NotNull final SBuild build, @NotNull String viewUrl) throws PublisherException;
+    boolean changeStarted(@NotNull final BuildRevision revision, @NotNull final SBuild build, @NotNull String viewUrl) throws PublisherException;
+    boolean changeCompleted(@NotNull final BuildRevision revision, @NotNull final SBuild build, @NotNull String viewUrl) throws PublisherException;
     boolean changeQueued(@NotNull final BuildRevision revision, @NotNull final BuildPromotion build, @NotNull AdditionalTaskInfo additionalTaskInfo, @NotNull String viewUrl) throws PublisherException;
     boolean changeRemovedFromQueue(@NotNull final BuildRevision revision, @NotNull final BuildPromotion build, @NotNull AdditionalTaskInfo additionalTaskInfo, @NotNull String viewUrl) throws PublisherException;
     CommitStatus getStatus(@NotNull final BuildRevision revision) throws PublisherException;
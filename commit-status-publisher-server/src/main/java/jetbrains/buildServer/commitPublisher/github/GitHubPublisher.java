@@ -67,32 +67,27 @@ class GitHubPublisher extends BaseCommitStatusPublisher {
 
   @Override
   public boolean buildStarted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    updateBuildStatus(build, revision, true);
-    return true;
+    return updateBuildStatus(build, revision, true);
   }
 
   @Override
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    updateBuildStatus(build, revision, false);
-    return true;
+    return updateBuildStatus(build, revision, false);
   }
 
   @Override
   public boolean buildInterrupted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    updateBuildStatus(build, revision, false);
-    return true;
+    return updateBuildStatus(build, revision, false);
   }
 
   @Override
   public boolean buildFailureDetected(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    updateBuildStatus(build, revision, false);
-    return true;
+    return updateBuildStatus(build, revision, false);
   }
 
   @Override
   public boolean buildMarkedAsSuccessful(@NotNull final SBuild build, @NotNull final BuildRevision revision, final boolean buildInProgress) throws PublisherException {
-    updateBuildStatus(build, revision, buildInProgress);
-    return true;
+    return updateBuildStatus(build, revision, buildInProgress);
   }
 
   @Override
@@ -168,23 +163,25 @@ class GitHubPublisher extends BaseCommitStatusPublisher {
     return null;
   }
 
+  @Nullable
+  @Override
   public String getServerUrl() {
     return myParams.get(Constants.GITHUB_SERVER);
   }
 
-  private void updateBuildStatus(@NotNull SBuild build, @NotNull BuildRevision revision, boolean isStarting) throws PublisherException {
+  private boolean updateBuildStatus(@NotNull SBuild build, @NotNull BuildRevision revision, boolean isStarting) throws PublisherException {
     final ChangeStatusUpdater.Handler h = myUpdater.getHandler(revision.getRoot(), getParams(build.getBuildPromotion()), this);
 
     if (!revision.getRoot().getVcsName().equals("jetbrains.git")) {
       LOG.warn("No revisions were found to update GitHub status. Please check you have Git VCS roots in the build configuration");
-      return;
+      return true;
     }
 
     String viewUrl = getViewUrl(build.getBuildPromotion());
     if (isStarting) {
-      h.changeStarted(revision, build, viewUrl);
+      return h.changeStarted(revision, build, viewUrl);
     } else {
-      h.changeCompleted(revision, build, viewUrl);
+      return h.changeCompleted(revision, build, viewUrl);
     }
   }
 
@@ -205,7 +202,7 @@ class GitHubPublisher extends BaseCommitStatusPublisher {
 
     if (!revision.getRoot().getVcsName().equals("jetbrains.git")) {
       LOG.warn("No revisions were found to update GitHub status. Please check you have Git VCS roots in the build configuration");
-      return false;
+      return true;
     }
     String viewUrl = getViewUrl(additionalTaskInfo.isPromotionReplaced() ? additionalTaskInfo.getReplacingPromotion() : buildPromotion);
     if (addingToQueue) {
@@ -55,6 +55,12 @@ class GitlabPublisher extends HttpBasedCommitStatusPublisher {
     return Constants.GITLAB_PUBLISHER_ID;
   }
 
+  @Nullable
+  @Override
+  public String getServerUrl() {
+    return getApiUrl();
+  }
+
 
   @NotNull
   @Override
@@ -64,49 +70,42 @@ class GitlabPublisher extends HttpBasedCommitStatusPublisher {
 
   @Override
   public boolean buildQueued(@NotNull BuildPromotion buildPromotion, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
-    publish(buildPromotion, revision, GitlabBuildStatus.PENDING, additionalTaskInfo);
-    return true;
+    return publish(buildPromotion, revision, GitlabBuildStatus.PENDING, additionalTaskInfo);
   }
 
   @Override
   public boolean buildRemovedFromQueue(@NotNull BuildPromotion buildPromotion, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
     GitlabBuildStatus targetStatus = additionalTaskInfo.isPromotionReplaced() ? GitlabBuildStatus.PENDING : GitlabBuildStatus.CANCELED;
-    publish(buildPromotion, revision, targetStatus, additionalTaskInfo);
-    return true;
+    return publish(buildPromotion, revision, targetStatus, additionalTaskInfo);
   }
 
   @Override
   public boolean buildStarted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, GitlabBuildStatus.RUNNING, DefaultStatusMessages.BUILD_STARTED);
-    return true;
+    return publish(build, revision, GitlabBuildStatus.RUNNING, DefaultStatusMessages.BUILD_STARTED);
   }
 
 
   @Override
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
     GitlabBuildStatus status = build.getBuildStatus().isSuccessful() ? GitlabBuildStatus.SUCCESS : GitlabBuildStatus.FAILED;
-    publish(build, revision, status, build.getStatusDescriptor().getText());
-    return true;
+    return publish(build, revision, status, build.getStatusDescriptor().getText());
   }
 
 
   @Override
   public boolean buildFailureDetected(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, GitlabBuildStatus.FAILED, build.getStatusDescriptor().getText());
-    return true;
+    return publish(build, revision, GitlabBuildStatus.FAILED, build.getStatusDescriptor().getText());
   }
 
   @Override
   public boolean buildMarkedAsSuccessful(@NotNull SBuild build, @NotNull BuildRevision revision, boolean buildInProgress) throws PublisherException {
-    publish(build, revision, buildInProgress ? GitlabBuildStatus.RUNNING : GitlabBuildStatus.SUCCESS, DefaultStatusMessages.BUILD_MARKED_SUCCESSFULL);
-    return true;
+    return publish(build, revision, buildInProgress ? GitlabBuildStatus.RUNNING : GitlabBuildStatus.SUCCESS, DefaultStatusMessages.BUILD_MARKED_SUCCESSFULL);
   }
 
 
   @Override
   public boolean buildInterrupted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, GitlabBuildStatus.CANCELED, build.getStatusDescriptor().getText());
-    return true;
+    return publish(build, revision, GitlabBuildStatus.CANCELED, build.getStatusDescriptor().getText());
   }
 
   @Override
@@ -196,31 +195,31 @@ class GitlabPublisher extends HttpBasedCommitStatusPublisher {
   }
 
 
-  private void publish(@NotNull SBuild build,
-                       @NotNull BuildRevision revision,
-                       @NotNull GitlabBuildStatus status,
-                       @NotNull String description) throws PublisherException {
+  private boolean publish(@NotNull SBuild build,
+                          @NotNull BuildRevision revision,
+                          @NotNull GitlabBuildStatus status,
+                          @NotNull String description) throws PublisherException {
     SBuildType buildType = build.getBuildType();
     String buildName = buildType != null ? buildType.getFullName() : build.getBuildTypeExternalId();
     String message = createMessage(status, buildName, revision, getViewUrl(build), description);
-    publish(message, revision, LogUtil.describe(build));
+    return publish(message, revision, LogUtil.describe(build));
   }
 
-  private void publish(@NotNull BuildPromotion buildPromotion,
-                       @NotNull BuildRevision revision,
-                       @NotNull GitlabBuildStatus status,
-                       @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
+  private boolean publish(@NotNull BuildPromotion buildPromotion,
+                          @NotNull BuildRevision revision,
+                          @NotNull GitlabBuildStatus status,
+                          @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
     String url = getViewUrl(buildPromotion);
     String description = additionalTaskInfo.getComment();
     SBuildType buildType = buildPromotion.getBuildType();
     String buildName = buildType != null ? buildType.getFullName() : buildPromotion.getBuildTypeExternalId();
     String message = createMessage(status, buildName, revision, url, description);
-    publish(message, revision, LogUtil.describe(buildPromotion));
+    return publish(message, revision, LogUtil.describe(buildPromotion));
   }
 
-  private void publish(@NotNull String message,
-                       @NotNull BuildRevision revision,
-                       @NotNull String buildDescription) throws PublisherException {
+  private boolean publish(@NotNull String message,
+                          @NotNull BuildRevision revision,
+                          @NotNull String buildDescription) throws PublisherException {
     VcsRootInstance root = revision.getRoot();
     String apiUrl = getApiUrl();
     if (null == apiUrl || apiUrl.length() == 0)
@@ -231,17 +230,17 @@ class GitlabPublisher extends HttpBasedCommitStatusPublisher {
       throw new PublisherException("Cannot parse repository URL from VCS root " + root.getName());
 
     try {
-      publish(revision.getRevision(), message, repository, buildDescription);
+      return publish(revision.getRevision(), message, repository, buildDescription);
     } catch (Exception e) {
       throw new PublisherException("Cannot publish status to GitLab for VCS root " +
                                    revision.getRoot().getName() + ": " + e.toString(), e);
     }
   }
 
-  private void publish(@NotNull String commit, @NotNull String data, @NotNull Repository repository, @NotNull String buildDescription) {
+  private boolean publish(@NotNull String commit, @NotNull String data, @NotNull Repository repository, @NotNull String buildDescription) {
     String url = GitlabSettings.getProjectsUrl(getApiUrl(), repository.owner(), repository.repositoryName()) + "/statuses/" + commit;
     LOG.debug("Request url: " + url + ", message: " + data);
-    postJson(url, null, null, data, Collections.singletonMap("PRIVATE-TOKEN", getPrivateToken()), buildDescription);
+    return postJson(url, null, null, data, Collections.singletonMap("PRIVATE-TOKEN", getPrivateToken()), buildDescription);
   }
 
   @Override
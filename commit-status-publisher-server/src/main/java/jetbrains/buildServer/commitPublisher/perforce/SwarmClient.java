@@ -33,7 +33,7 @@ public class SwarmClient {
   private final String myUsername;
   private final String myTicket;
   private final boolean myAdminRequired;
-  private int myConnectionTimeout;
+  private volatile int myConnectionTimeout;
   private final KeyStore myTrustStore;
   private final RelativeWebLinks myWebLinks;
 
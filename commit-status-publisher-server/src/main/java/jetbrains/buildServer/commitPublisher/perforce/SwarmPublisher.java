@@ -41,6 +41,12 @@ class SwarmPublisher extends HttpBasedCommitStatusPublisher {
     return ID;
   }
 
+  @Nullable
+  @Override
+  public String getServerUrl() {
+    return myParams.get(SwarmPublisherSettings.PARAM_URL);
+  }
+
   @Override
   public String toString() {
     return "perforceSwarm";
@@ -62,6 +62,12 @@ public class SpacePublisher extends HttpBasedCommitStatusPublisher {
     return Constants.SPACE_PUBLISHER_ID;
   }
 
+  @Nullable
+  @Override
+  public String getServerUrl() {
+    return myParams.get(Constants.SPACE_SERVER_URL);
+  }
+
   @Override
   public boolean buildQueued(@NotNull BuildPromotion buildPromotion,
                              @NotNull BuildRevision revision,
@@ -74,7 +80,7 @@ public class SpacePublisher extends HttpBasedCommitStatusPublisher {
                                        @NotNull BuildRevision revision,
                                        @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
     if (additionalTaskInfo.commentContains(DefaultStatusMessages.BUILD_STARTED)) {
-      return false;
+      return true;
     }
     SpaceBuildStatus targetStatus = additionalTaskInfo.isPromotionReplaced() ? SpaceBuildStatus.SCHEDULED : SpaceBuildStatus.TERMINATED;
     return publishQueued(buildPromotion, revision, targetStatus, additionalTaskInfo);
@@ -82,33 +88,28 @@ public class SpacePublisher extends HttpBasedCommitStatusPublisher {
 
   @Override
   public boolean buildStarted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, SpaceBuildStatus.RUNNING, DefaultStatusMessages.BUILD_STARTED);
-    return true;
+    return publish(build, revision, SpaceBuildStatus.RUNNING, DefaultStatusMessages.BUILD_STARTED);
   }
 
   @Override
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
     SpaceBuildStatus status = build.getBuildStatus().isSuccessful() ? SpaceBuildStatus.SUCCEEDED : SpaceBuildStatus.FAILED;
-    publish(build, revision, status, build.getStatusDescriptor().getText());
-    return true;
+    return publish(build, revision, status, build.getStatusDescriptor().getText());
   }
 
   @Override
   public boolean buildInterrupted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, SpaceBuildStatus.TERMINATED, build.getStatusDescriptor().getText());
-    return true;
+    return publish(build, revision, SpaceBuildStatus.TERMINATED, build.getStatusDescriptor().getText());
   }
 
   @Override
   public boolean buildFailureDetected(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, SpaceBuildStatus.FAILING, build.getStatusDescriptor().getText());
-    return true;
+    return publish(build, revision, SpaceBuildStatus.FAILING, build.getStatusDescriptor().getText());
   }
 
   @Override
   public boolean buildMarkedAsSuccessful(@NotNull SBuild build, @NotNull BuildRevision revision, boolean buildInProgress) throws PublisherException {
-    publish(build, revision, buildInProgress ? SpaceBuildStatus.RUNNING : SpaceBuildStatus.SUCCEEDED, DefaultStatusMessages.BUILD_MARKED_SUCCESSFULL);
-    return true;
+    return publish(build, revision, buildInProgress ? SpaceBuildStatus.RUNNING : SpaceBuildStatus.SUCCEEDED, DefaultStatusMessages.BUILD_MARKED_SUCCESSFULL);
   }
 
   @Override
@@ -230,14 +231,13 @@ public class SpacePublisher extends HttpBasedCommitStatusPublisher {
     headers.put(HttpHeaders.ACCEPT, ContentType.TEXT_PLAIN.getMimeType());
     token.toHeader(headers);
 
-    postJson(requestUrl, null, null, payload, headers, description);
-    return true;
+    return postJson(requestUrl, null, null, payload, headers, description);
   }
 
-  private void publish(@NotNull SBuild build,
-                       @NotNull BuildRevision revision,
-                       @NotNull SpaceBuildStatus status,
-                       @NotNull String description) throws PublisherException {
+  private boolean publish(@NotNull SBuild build,
+                          @NotNull BuildRevision revision,
+                          @NotNull SpaceBuildStatus status,
+                          @NotNull String description) throws PublisherException {
     Date finishDate = build.getFinishDate();
     List<String> changes = build.getContainingChanges()
       .stream()
@@ -259,7 +259,7 @@ public class SpacePublisher extends HttpBasedCommitStatusPublisher {
     String buildDescription = LogUtil.describe(build);
     SpaceToken token = requestToken(revision.getRoot().getName(), buildDescription);
     if (token == null) {
-      return;
+      return false;
     }
 
     Repository repoInfo= SpaceUtils.getRepositoryInfo(revision.getRoot(), myParams.get(Constants.SPACE_PROJECT_KEY));
@@ -275,7 +275,7 @@ public class SpacePublisher extends HttpBasedCommitStatusPublisher {
     headers.put(HttpHeaders.ACCEPT, ContentType.TEXT_PLAIN.getMimeType());
     token.toHeader(headers);
 
-    postJson(url, null, null, payload, headers, buildDescription);
+    return postJson(url, null, null, payload, headers, buildDescription);
   }
 
   @Nullable
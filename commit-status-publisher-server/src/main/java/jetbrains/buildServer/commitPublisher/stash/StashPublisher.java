@@ -46,7 +46,7 @@ class StashPublisher extends HttpBasedCommitStatusPublisher {
   private static final String SERVER_VERSION_EXTENDED_SERVER_LWM = "7.14.0";
 
   private final Gson myGson = new Gson();
-  private BitbucketEndpoint myBitbucketEndpoint = null;
+  private volatile BitbucketEndpoint myBitbucketEndpoint = null;
 
   StashPublisher(@NotNull CommitStatusPublisherSettings settings,
                  @NotNull SBuildType buildType, @NotNull String buildFeatureId,
@@ -66,31 +66,33 @@ class StashPublisher extends HttpBasedCommitStatusPublisher {
     return Constants.STASH_PUBLISHER_ID;
   }
 
+  @Nullable
+  @Override
+  public String getServerUrl() {
+    return getBaseUrl();
+  }
+
   @Override
   public boolean buildQueued(@NotNull BuildPromotion buildPromotion, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) {
-    vote(buildPromotion, revision, StashBuildStatus.INPROGRESS, additionalTaskInfo.getComment());
-    return true;
+    return vote(buildPromotion, revision, StashBuildStatus.INPROGRESS, additionalTaskInfo.getComment());
   }
 
   @Override
   public boolean buildRemovedFromQueue(@NotNull BuildPromotion buildPromotion, @NotNull BuildRevision revision, @NotNull AdditionalTaskInfo additionalTaskInfo) {
     StashBuildStatus targetStatus = additionalTaskInfo.isPromotionReplaced() ? StashBuildStatus.INPROGRESS : StashBuildStatus.FAILED;
-    vote(buildPromotion, revision, targetStatus, additionalTaskInfo.getComment());
-    return true;
+    return vote(buildPromotion, revision, targetStatus, additionalTaskInfo.getComment());
   }
 
   @Override
   public boolean buildStarted(@NotNull SBuild build, @NotNull BuildRevision revision) {
-    vote(build, revision, StashBuildStatus.INPROGRESS, DefaultStatusMessages.BUILD_STARTED);
-    return true;
+    return vote(build, revision, StashBuildStatus.INPROGRESS, DefaultStatusMessages.BUILD_STARTED);
   }
 
   @Override
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) {
     StashBuildStatus status = build.getBuildStatus().isSuccessful() ? StashBuildStatus.SUCCESSFUL : StashBuildStatus.FAILED;
     String description = build.getStatusDescriptor().getText();
-    vote(build, revision, status, description);
-    return true;
+    return vote(build, revision, status, description);
   }
 
   @Override
@@ -105,26 +107,22 @@ class StashPublisher extends HttpBasedCommitStatusPublisher {
     if (user != null && comment != null) {
       description += " with a comment by " + user.getExtendedName() + ": \"" + comment + "\"";
     }
-    vote(build, revision, status, description);
-    return true;
+    return vote(build, revision, status, description);
   }
 
   @Override
   public boolean buildMarkedAsSuccessful(@NotNull SBuild build, @NotNull BuildRevision revision, boolean buildInProgress) {
-    vote(build, revision, buildInProgress ? StashBuildStatus.INPROGRESS : StashBuildStatus.SUCCESSFUL, DefaultStatusMessages.BUILD_MARKED_SUCCESSFULL);
-    return true;
+    return vote(build, revision, buildInProgress ? StashBuildStatus.INPROGRESS : StashBuildStatus.SUCCESSFUL, DefaultStatusMessages.BUILD_MARKED_SUCCESSFULL);
   }
 
   @Override
   public boolean buildInterrupted(@NotNull SBuild build, @NotNull BuildRevision revision) {
-    vote(build, revision, StashBuildStatus.FAILED, build.getStatusDescriptor().getText());
-    return true;
+    return vote(build, revision, StashBuildStatus.FAILED, build.getStatusDescriptor().getText());
   }
 
   @Override
   public boolean buildFailureDetected(@NotNull SBuild build, @NotNull BuildRevision revision) {
-    vote(build, revision, StashBuildStatus.FAILED, build.getStatusDescriptor().getText());
-    return true;
+    return vote(build, revision, StashBuildStatus.FAILED, build.getStatusDescriptor().getText());
   }
 
   @Override
@@ -195,22 +193,22 @@ class StashPublisher extends HttpBasedCommitStatusPublisher {
     return VersionComparatorUtil.compare(getSettings().getServerVersion(getBaseUrl()), "7.4") < 0;
   }
 
-  private void vote(@NotNull SBuild build,
-                    @NotNull BuildRevision revision,
-                    @NotNull StashBuildStatus status,
-                    @NotNull String comment) {
+  private boolean vote(@NotNull SBuild build,
+                       @NotNull BuildRevision revision,
+                       @NotNull StashBuildStatus status,
+                       @NotNull String comment) {
     String vcsBranch = getVcsBranch(revision, LogUtil.describe(build));
     SBuildData data = new SBuildData(build, revision, status, comment, vcsBranch);
-    getEndpoint().publishBuildStatus(data, LogUtil.describe(build));
+    return getEndpoint().publishBuildStatus(data, LogUtil.describe(build));
   }
 
-  private void vote(@NotNull BuildPromotion buildPromotion,
-                    @NotNull BuildRevision revision,
-                    @NotNull StashBuildStatus status,
-                    @NotNull String comment) {
+  private boolean vote(@NotNull BuildPromotion buildPromotion,
+                       @NotNull BuildRevision revision,
+                       @NotNull StashBuildStatus status,
+                       @NotNull String comment) {
     String vcsBranch = getVcsBranch(revision, LogUtil.describe(buildPromotion));
     SBuildPromotionData data = new SBuildPromotionData(buildPromotion, revision, status, comment, vcsBranch);
-    getEndpoint().publishBuildStatus(data, LogUtil.describe(buildPromotion));
+    return getEndpoint().publishBuildStatus(data, LogUtil.describe(buildPromotion));
   }
 
   @Nullable
@@ -471,7 +469,7 @@ class StashPublisher extends HttpBasedCommitStatusPublisher {
   }
 
   private interface BitbucketEndpoint {
-    void publishBuildStatus(@NotNull StatusData data, @NotNull String buildDescription);
+    boolean publishBuildStatus(@NotNull StatusData data, @NotNull String buildDescription);
     PullRequest getPullRequest(@NotNull BuildRevision revision, @NotNull String buildDescriptor);
     JsonStashBuildStatus getCommitBuildStatus(@NotNull StatusRequestData data, @NotNull String buildDescription);
   }
@@ -479,12 +477,13 @@ class StashPublisher extends HttpBasedCommitStatusPublisher {
   private abstract class BaseBitbucketEndpoint implements BitbucketEndpoint {
 
     @Override
-    public void publishBuildStatus(@NotNull StatusData data, @NotNull String buildDescription) {
+    public boolean publishBuildStatus(@NotNull StatusData data, @NotNull String buildDescription) {
       try {
         String url = getBuildEndpointUrl(data);
-        postJson(url, getUsername(), getPassword(), createBuildStatusMessage(data), null, buildDescription);
+        return postJson(url, getUsername(), getPassword(), createBuildStatusMessage(data), null, buildDescription);
       } catch (PublisherException ex) {
         myProblems.reportProblem("Commit Status Publisher has failed to prepare a request", StashPublisher.this, buildDescription, null, ex, LOG);
+        return false;
       }
     }
 
@@ -82,6 +82,12 @@ class TfsStatusPublisher extends HttpBasedCommitStatusPublisher {
     return TfsConstants.ID;
   }
 
+  @Nullable
+  @Override
+  public String getServerUrl() {
+    return myParams.get(TfsConstants.SERVER_URL);
+  }
+
   @Override
   public boolean isPublishingForRevision(@NotNull final BuildRevision revision) {
     final VcsRoot vcsRoot = revision.getRoot();
@@ -104,26 +110,22 @@ class TfsStatusPublisher extends HttpBasedCommitStatusPublisher {
 
   @Override
   public boolean buildStarted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    updateBuildStatus(build, revision, true);
-    return true;
+    return updateBuildStatus(build, revision, true);
   }
 
   @Override
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    updateBuildStatus(build, revision, false);
-    return true;
+    return updateBuildStatus(build, revision, false);
   }
 
   @Override
   public boolean buildInterrupted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    updateBuildStatus(build, revision, false);
-    return true;
+    return updateBuildStatus(build, revision, false);
   }
 
   @Override
   public boolean buildMarkedAsSuccessful(@NotNull final SBuild build, @NotNull final BuildRevision revision, final boolean buildInProgress) throws PublisherException {
-    updateBuildStatus(build, revision, buildInProgress);
-    return true;
+    return updateBuildStatus(build, revision, buildInProgress);
   }
 
   @Override
@@ -446,7 +448,7 @@ class TfsStatusPublisher extends HttpBasedCommitStatusPublisher {
                                     @NotNull AdditionalTaskInfo additionalTaskInfo) throws PublisherException {
     final TfsRepositoryInfo info = getReposioryInfo(revision);
     if (info == null) {
-      return false;
+      return true;
     }
     final CommitStatus status = getCommitStatus(buildPromotion, additionalTaskInfo);
     final String description = LogUtil.describe(buildPromotion);
@@ -468,12 +470,11 @@ class TfsStatusPublisher extends HttpBasedCommitStatusPublisher {
   private boolean publishCommitStatus(TfsRepositoryInfo info, String data, String commitId, String description) {
     final String commitStatusUrl = MessageFormat.format(COMMIT_STATUS_URL_FORMAT,
                                                         info.getServer(), info.getProject(), info.getRepository(), commitId);
-    postJson(commitStatusUrl, StringUtil.EMPTY, myParams.get(TfsConstants.ACCESS_TOKEN),
-             data,
-             Collections.singletonMap("Accept", "application/json"),
-             description
+    return postJson(commitStatusUrl, StringUtil.EMPTY, myParams.get(TfsConstants.ACCESS_TOKEN),
+                    data,
+                    Collections.singletonMap("Accept", "application/json"),
+                    description
     );
-    return true;
   }
 
   @NotNull
@@ -532,16 +533,16 @@ class TfsStatusPublisher extends HttpBasedCommitStatusPublisher {
     return commitId;
   }
 
-  private void updateBuildStatus(@NotNull SBuild build, @NotNull BuildRevision revision, boolean isStarting) throws PublisherException {
+  private boolean updateBuildStatus(@NotNull SBuild build, @NotNull BuildRevision revision, boolean isStarting) throws PublisherException {
     final TfsRepositoryInfo info = getReposioryInfo(revision);
     if (info == null) {
-      return;
+      return true;
     }
     final CommitStatus status = getCommitStatus(build, isStarting);
     final String description = LogUtil.describe(build);
     final String data = myGson.toJson(status);
     final String commitId = publishPullRequestStatus(info, revision, data, description);
-    publishCommitStatus(info, data, commitId, description);
+    return publishCommitStatus(info, data, commitId, description);
   }
 
   @NotNull
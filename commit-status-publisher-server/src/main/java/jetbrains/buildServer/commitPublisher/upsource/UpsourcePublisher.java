@@ -58,42 +58,43 @@ class UpsourcePublisher extends HttpBasedCommitStatusPublisher {
     return Constants.UPSOURCE_PUBLISHER_ID;
   }
 
+  @Nullable
+  @Override
+  public String getServerUrl() {
+    return myParams.get(Constants.UPSOURCE_SERVER_URL);
+  }
+
   @Override
   public boolean buildStarted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, UpsourceStatus.IN_PROGRESS, DefaultStatusMessages.BUILD_STARTED);
-    return true;
+    return publish(build, revision, UpsourceStatus.IN_PROGRESS, DefaultStatusMessages.BUILD_STARTED);
   }
 
   @Override
   public boolean buildFinished(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
     UpsourceStatus status = build.getBuildStatus().isSuccessful() ? UpsourceStatus.SUCCESS : UpsourceStatus.FAILED;
     String description = build.getStatusDescriptor().getText();
-    publish(build, revision, status, description);
-    return true;
+    return publish(build, revision, status, description);
   }
 
   @Override
   public boolean buildInterrupted(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, UpsourceStatus.FAILED, build.getStatusDescriptor().getText());
-    return true;
+    return publish(build, revision, UpsourceStatus.FAILED, build.getStatusDescriptor().getText());
   }
 
   @Override
   public boolean buildFailureDetected(@NotNull SBuild build, @NotNull BuildRevision revision) throws PublisherException {
-    publish(build, revision, UpsourceStatus.FAILED, build.getStatusDescriptor().getText());
-    return true;
+    return publish(build, revision, UpsourceStatus.FAILED, build.getStatusDescriptor().getText());
   }
 
   @Override
   public boolean buildMarkedAsSuccessful(@NotNull SBuild build, @NotNull BuildRevision revision, boolean buildInProgress) throws PublisherException {
-    publish(build, revision, buildInProgress ? UpsourceStatus.IN_PROGRESS : UpsourceStatus.SUCCESS, "Build marked as successful");
-    return true;
+    return publish(build, revision, buildInProgress ? UpsourceStatus.IN_PROGRESS : UpsourceStatus.SUCCESS, "Build marked as successful");
   }
 
-  private void publish(@NotNull SBuild build,
-                       @NotNull BuildRevision revision,
-                       @NotNull UpsourceStatus status,
-                       @NotNull String description) throws PublisherException {
+  private boolean publish(@NotNull SBuild build,
+                          @NotNull BuildRevision revision,
+                          @NotNull UpsourceStatus status,
+                          @NotNull String description) throws PublisherException {
     String url = getViewUrl(build);
     String commitMessage = null;
     Long commitDate = null;
@@ -118,7 +119,7 @@ class UpsourcePublisher extends HttpBasedCommitStatusPublisher {
             commitMessage,
             commitDate);
     try {
-      publish(payload, LogUtil.describe(build));
+      return publish(payload, LogUtil.describe(build));
     } catch (Exception e) {
       throw new PublisherException("Cannot publish status to Upsource for VCS root " +
                                    revision.getRoot().getName() + ": " + e.toString(), e);
@@ -126,10 +127,10 @@ class UpsourcePublisher extends HttpBasedCommitStatusPublisher {
   }
 
 
-  private void publish(@NotNull String payload, @NotNull String buildDescription) {
+  private boolean publish(@NotNull String payload, @NotNull String buildDescription) {
     String url = HttpHelper.stripTrailingSlash(myParams.get(Constants.UPSOURCE_SERVER_URL)) + "/" + UpsourceSettings.ENDPOINT_BUILD_STATUS;
-    postJson(url, myParams.get(Constants.UPSOURCE_USERNAME),
-             myParams.get(Constants.UPSOURCE_PASSWORD), payload, null, buildDescription);
+    return postJson(url, myParams.get(Constants.UPSOURCE_USERNAME),
+                    myParams.get(Constants.UPSOURCE_PASSWORD), payload, null, buildDescription);
   }
 
   @NotNull
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class BackoffPollingTest {
+
+  public void should_not_wait_when_condition_already_holds() throws InterruptedException {
+    long start = System.currentTimeMillis();
+    then(BackoffPolling.await(() -> true, 5_000, 50)).isTrue();
+    then(System.currentTimeMillis() - start).isLessThan(1_000);
+  }
+
+  public void should_return_soon_after_condition_starts_to_hold() throws InterruptedException {
+    long updatedAt = System.currentTimeMillis() + 200;
+    long start = System.currentTimeMillis();
+    then(BackoffPolling.await(() -> System.currentTimeMillis() >= updatedAt, 5_000, 10)).isTrue();
+    long latency = System.currentTimeMillis() - start;
+    then(latency).isGreaterThanOrEqualTo(200).isLessThan(2_000);
+  }
+
+  public void should_give_up_after_timeout() throws InterruptedException {
+    AtomicInteger checks = new AtomicInteger();
+    long start = System.currentTimeMillis();
+    then(BackoffPolling.await(() -> checks.incrementAndGet() < 0, 300, 10)).isFalse();
+    then(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(300).isLessThan(3_000);
+    // intervals grow exponentially, so the condition is not checked every 10ms
+    then(checks.get()).isLessThan(10);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class BoundedFanOutTest {
+
+  private ExecutorService myExecutorService;
+
+  @BeforeMethod
+  protected void setUp() {
+    myExecutorService = Executors.newFixedThreadPool(8);
+  }
+
+  @AfterMethod
+  protected void tearDown() {
+    myExecutorService.shutdownNow();
+  }
+
+  public void should_not_exceed_parallelism() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<Supplier<CompletableFuture<Void>>> tasks = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      tasks.add(() -> CompletableFuture.runAsync(() -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+      }, myExecutorService));
+    }
+
+    new BoundedFanOut(tasks, 3).start().get(10, TimeUnit.SECONDS);
+    then(maxRunning.get()).isBetween(1, 3);
+    then(running.get()).isZero();
+  }
+
+  public void should_run_all_tasks_and_collect_failures() throws Exception {
+    AtomicInteger completed = new AtomicInteger();
+    List<Supplier<CompletableFuture<Void>>> tasks = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      int index = i;
+      tasks.add(() -> CompletableFuture.runAsync(() -> {
+        completed.incrementAndGet();
+        if (index % 2 == 0) {
+          throw new IllegalStateException("failure " + index);
+        }
+      }, myExecutorService));
+    }
+
+    CompletableFuture<Void> result = new BoundedFanOut(tasks, 2).start();
+    try {
+      result.get(10, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      then(e.getCause()).isInstanceOf(IllegalStateException.class);
+      then(e.getCause().getSuppressed()).hasSize(2);
+    }
+    then(result).isCompletedExceptionally();
+    then(completed.get()).isEqualTo(5);
+  }
+
+  public void should_complete_without_tasks() {
+    then(new BoundedFanOut(new ArrayList<>(), 4).start()).isCompleted();
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.commitPublisher.CommitStatusPublisher.Event;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class BuildEventStatesTest {
+
+  private BuildEventStates myStates;
+
+  @BeforeMethod
+  protected void setUp() {
+    myStates = new BuildEventStates();
+  }
+
+  public void should_not_accept_first_event_after_consequent() {
+    then(myStates.accept(1, Event.STARTED, false)).isTrue();
+    then(myStates.accept(1, Event.FAILURE_DETECTED, false)).isTrue();
+    then(myStates.accept(1, Event.STARTED, false)).isFalse();
+    then(myStates.accept(2, Event.STARTED, false)).isTrue();
+  }
+
+  public void should_accept_any_event_after_consequent() {
+    then(myStates.accept(1, Event.FAILURE_DETECTED, false)).isTrue();
+    then(myStates.accept(1, Event.COMMENTED, false)).isTrue();
+    then(myStates.getLastConsequentEvent(1)).isEqualTo(Event.FAILURE_DETECTED);
+  }
+
+  public void should_forget_build_after_terminal_event_published() {
+    then(myStates.accept(1, Event.FAILURE_DETECTED, false)).isTrue();
+    then(myStates.accept(1, Event.FINISHED, true)).isTrue();
+    myStates.published(1, Event.FAILURE_DETECTED, false);
+    then(myStates.size()).isEqualTo(1);
+    myStates.published(1, Event.FINISHED, true);
+    then(myStates.size()).isEqualTo(0);
+    then(myStates.getEvictionCount()).isZero();
+  }
+
+  public void should_not_accept_first_event_for_finished_build() {
+    then(myStates.accept(1, Event.FINISHED, true)).isTrue();
+    myStates.published(1, Event.FINISHED, true);
+    then(myStates.accept(1, Event.STARTED, true)).isFalse();
+    then(myStates.accept(1, Event.MARKED_AS_SUCCESSFUL, true)).isTrue();
+    then(myStates.size()).isEqualTo(0);
+  }
+
+  public void should_expire_state_of_build_which_terminal_event_is_not_published() {
+    AtomicLong nanos = new AtomicLong();
+    BuildEventStates states = new BuildEventStates(new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    });
+    then(states.accept(1, Event.FAILURE_DETECTED, false)).isTrue();
+    nanos.addAndGet(TimeUnit.HOURS.toNanos(1));
+    then(states.accept(1, Event.STARTED, false)).isFalse();
+    nanos.addAndGet(TimeUnit.DAYS.toNanos(2));
+    then(states.getLastConsequentEvent(1)).isNull();
+    then(states.size()).isEqualTo(0);
+    then(states.getEvictionCount()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import jetbrains.buildServer.vcs.CheckoutRules;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class CheckoutRulesMatcherTest {
+
+  private static final List<String> FILES = Arrays.asList(
+    "README.md",
+    "src",
+    "src/Main.java",
+    "src/main/java/App.java",
+    "src/test/java/AppTest.java",
+    "srcgen/Generated.java",
+    "docs/index.md",
+    "docs/api/reference.md",
+    "modules/core/src/Core.java",
+    "modules/core/test/CoreTest.java",
+    "modules/web/src/Web.java",
+    "Modules/Web/src/Upper.java",
+    "build.gradle"
+  );
+
+  @DataProvider
+  public Object[][] rules() {
+    return new Object[][] {
+      {""},
+      {"+:."},
+      {"-:docs"},
+      {"+:src"},
+      {"+:src => ."},
+      {"+:src\n-:src/test"},
+      {"+:.\n-:docs\n-:modules/web"},
+      {"+:modules/core\n+:modules/web/src => web"},
+      {"+:modules\n-:modules/core\n+:modules/core/src"},
+      {"+:docs/api\n+:build.gradle"},
+    };
+  }
+
+  @Test(dataProvider = "rules")
+  public void should_match_as_checkout_rules(String rulesText) {
+    CheckoutRules rules = new CheckoutRules(rulesText);
+    CheckoutRulesMatcher matcher = CheckoutRulesMatcher.compile(rules);
+    for (String file : FILES) {
+      then(matcher.matches(file)).as("rules '" + rulesText + "', file " + file).isEqualTo(rules.shouldInclude(file));
+    }
+    then(matcher.matchesAny(FILES)).isEqualTo(FILES.stream().anyMatch(rules::shouldInclude));
+  }
+
+  public void should_not_match_files_outside_of_include_paths() {
+    CheckoutRulesMatcher matcher = CheckoutRulesMatcher.compile(new CheckoutRules("+:modules/core"));
+    then(matcher.matchesAny(Arrays.asList("modules/web/src/Web.java", "modules/coreutils/Utils.java", "docs/index.md"))).isFalse();
+    then(matcher.matchesAny(Arrays.asList("docs/index.md", "modules/core/src/Core.java"))).isTrue();
+    then(matcher.matchesAny(Collections.emptyList())).isFalse();
+  }
+}
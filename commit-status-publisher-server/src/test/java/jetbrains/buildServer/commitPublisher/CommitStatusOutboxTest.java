@@ -0,0 +1,194 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.commitPublisher.CommitStatusPublisher.Event;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class CommitStatusOutboxTest {
+
+  private File myDirectory;
+  private File myFile;
+  private List<Runnable> myWriterTasks;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    myDirectory = Files.createTempDirectory("outbox").toFile();
+    myFile = new File(myDirectory, "outbox.log");
+    myWriterTasks = new ArrayList<>();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    System.clearProperty(CommitStatusOutbox.MAX_ENTRIES_PROPERTY_NAME);
+    System.clearProperty(CommitStatusOutbox.COMPACTION_THRESHOLD_PROPERTY_NAME);
+    FileUtil.delete(myDirectory);
+  }
+
+  public void should_keep_not_acknowledged_statuses_after_restart() {
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.record(1, "feature:root:rev1", Event.STARTED);
+    outbox.record(2, "feature:root:rev1", Event.QUEUED);
+    outbox.record(3, "feature:root:rev2", Event.FINISHED);
+    outbox.acknowledge(2, "feature:root:rev1", Event.QUEUED);
+    outbox.close();
+
+    CommitStatusOutbox restarted = newOutbox();
+    List<CommitStatusOutbox.Entry> pending = restarted.getPendingBefore(Long.MAX_VALUE, 10);
+    then(pending.stream().map(CommitStatusOutbox.Entry::getPromotionId).collect(Collectors.toList())).containsExactly(1L, 3L);
+    then(pending.get(0).getKey()).isEqualTo("feature:root:rev1");
+    then(pending.get(0).getEvent()).isEqualTo(Event.STARTED);
+  }
+
+  public void should_replace_status_by_newer_event() {
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.record(1, "key", Event.STARTED);
+    outbox.record(1, "key", Event.FINISHED);
+    // the acknowledgement of the outdated event does not remove the newer one
+    outbox.acknowledge(1, "key", Event.STARTED);
+    then(outbox.size()).isEqualTo(1);
+    outbox.close();
+
+    CommitStatusOutbox restarted = newOutbox();
+    then(restarted.getPendingBefore(Long.MAX_VALUE, 10).get(0).getEvent()).isEqualTo(Event.FINISHED);
+    restarted.acknowledge(1, "key", Event.FINISHED);
+    then(restarted.size()).isZero();
+  }
+
+  public void should_keep_first_record_time_of_republished_event() throws IOException {
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.record(1, "key", Event.FINISHED);
+    long recordTime = outbox.getPendingBefore(Long.MAX_VALUE, 10).get(0).getTime();
+    outbox.record(2, "key", Event.STARTED);
+    outbox.record(1, "key", Event.FINISHED);
+
+    then(outbox.getPendingBefore(Long.MAX_VALUE, 10)).extracting(CommitStatusOutbox.Entry::getPromotionId).containsExactly(1L, 2L);
+    then(outbox.getPendingBefore(Long.MAX_VALUE, 10).get(0).getTime()).isEqualTo(recordTime);
+    runWriterTasks();
+    then(readLines()).hasSize(2);
+  }
+
+  public void should_forget_statuses_of_promotion() {
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.record(1, "key1", Event.STARTED);
+    outbox.record(1, "key2", Event.STARTED);
+    outbox.record(2, "key1", Event.STARTED);
+    outbox.forget(1);
+    outbox.close();
+
+    then(newOutbox().getPendingBefore(Long.MAX_VALUE, 10)).extracting(CommitStatusOutbox.Entry::getPromotionId).containsExactly(2L);
+  }
+
+  public void should_compact_file() throws IOException {
+    System.setProperty(CommitStatusOutbox.COMPACTION_THRESHOLD_PROPERTY_NAME, "10");
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.record(0, "pending", Event.FINISHED);
+    for (int i = 1; i <= 100; i++) {
+      outbox.record(i, "key", Event.STARTED);
+      outbox.acknowledge(i, "key", Event.STARTED);
+    }
+    outbox.flush();
+    then(readLines().size()).isLessThanOrEqualTo(11);
+    outbox.close();
+
+    then(newOutbox().getPendingBefore(Long.MAX_VALUE, 10)).extracting(CommitStatusOutbox.Entry::getPromotionId).containsExactly(0L);
+    then(readLines()).hasSize(1);
+  }
+
+  public void should_drop_oldest_statuses_when_full() {
+    System.setProperty(CommitStatusOutbox.MAX_ENTRIES_PROPERTY_NAME, "2");
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.record(1, "key", Event.STARTED);
+    outbox.record(2, "key", Event.STARTED);
+    outbox.record(3, "key", Event.STARTED);
+    then(outbox.getPendingBefore(Long.MAX_VALUE, 10)).extracting(CommitStatusOutbox.Entry::getPromotionId).containsExactly(2L, 3L);
+  }
+
+  public void should_skip_incomplete_lines() throws IOException {
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.record(1, "key", Event.STARTED);
+    outbox.close();
+    Files.write(myFile.toPath(), "R\t2\tkey".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    then(newOutbox().getPendingBefore(Long.MAX_VALUE, 10)).extracting(CommitStatusOutbox.Entry::getPromotionId).containsExactly(1L);
+  }
+
+  public void should_keep_queued_statuses_after_restart() {
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.recordQueuedStatus(1, 100);
+    outbox.recordQueuedStatus(2, 200);
+    outbox.recordQueuedStatus(1, 300);
+    outbox.forgetQueuedStatus(2);
+    outbox.record(3, "key", Event.QUEUED);
+    outbox.close();
+
+    CommitStatusOutbox restarted = newOutbox();
+    then(restarted.getQueuedStatuses()).containsExactly(entry(1L, 100L));
+    then(restarted.size()).isEqualTo(1);
+    restarted.close();
+
+    // the queued statuses survive the compaction done after loading
+    then(newOutbox().getQueuedStatuses()).containsOnlyKeys(1L);
+  }
+
+  public void should_write_on_writer_task_in_batches() throws IOException {
+    CommitStatusOutbox outbox = newOutbox();
+    outbox.record(1, "key", Event.STARTED);
+    outbox.record(2, "key", Event.STARTED);
+    outbox.acknowledge(1, "key", Event.STARTED);
+    then(myFile).doesNotExist();
+    then(myWriterTasks).hasSize(1);
+
+    runWriterTasks();
+    then(readLines()).hasSize(3);
+    then(myWriterTasks).isEmpty();
+
+    outbox.forget(2);
+    runWriterTasks();
+    then(readLines()).hasSize(4);
+    then(newOutbox().size()).isZero();
+  }
+
+  private CommitStatusOutbox newOutbox() {
+    return new CommitStatusOutbox(myFile, myWriterTasks::add);
+  }
+
+  private void runWriterTasks() {
+    while (!myWriterTasks.isEmpty()) {
+      myWriterTasks.remove(0).run();
+    }
+  }
+
+  private List<String> readLines() throws IOException {
+    return Files.readAllLines(myFile.toPath(), StandardCharsets.UTF_8);
+  }
+}
@@ -54,6 +54,7 @@ public class CommitStatusPublisherListenerTest extends CommitStatusPublisherTest
   private PublisherLogger myLogger;
   private PublisherManager myPublisherManager;
   private BuildHistory myHistory;
+  private CommitStatusOutbox myOutbox;
   private SUser myUser;
   private Event myLastEventProcessed;
   private final Consumer<Event> myEventProcessedCallback = event -> myLastEventProcessed = event;
@@ -64,14 +65,19 @@ public class CommitStatusPublisherListenerTest extends CommitStatusPublisherTest
     setInternalProperty(CommitStatusPublisherListener.EXPECTED_PROMOTIONS_CACHE_REFRESH_TIME_PROPERTY_NAME, "0");
     setInternalProperty(CommitStatusPublisherListener.MODIFICATIONS_PROCESSING_DELAY_PROPERTY_NAME, "10");
     setInternalProperty(MODIFICATIONS_PROCESSING_FEATURE_TOGGLE, "true");
+    setInternalProperty(CommitStatusPublisherListener.SINGLE_NODE_DISPATCH_PROPERTY_NAME, "false");
+    setInternalProperty(CommitStatusPublisherListener.REMOVED_FROM_QUEUE_BATCH_WINDOW_PROPERTY_NAME, "0");
+    setInternalProperty(CommitStatusPublisherListener.COMMENTED_DEBOUNCE_WINDOW_PROPERTY_NAME, "0");
     myLastEventProcessed = null;
     myLogger = new PublisherLogger();
     myPublisherManager = new PublisherManager(myServer);
     myHistory = myFixture.getHistory();
+    myOutbox = new CommitStatusOutbox(new File(createTempDir(), "outbox.log"), myFixture.getSingletonService(ExecutorServices.class).getLowPriorityExecutorService());
     myListener = new CommitStatusPublisherListener(myFixture.getEventDispatcher(), myPublisherManager, myHistory, myBuildsManager, myFixture.getBuildPromotionManager(), myProblems,
                                                    myFixture.getServerResponsibility(), myFixture.getSingletonService(ExecutorServices.class),
                                                    myFixture.getSingletonService(ProjectManager.class), myFixture.getSingletonService(TeamCityNodes.class),
-                                                   myFixture.getSingletonService(UserModel.class), myMultiNodeTasks);
+                                                   myFixture.getSingletonService(UserModel.class), myMultiNodeTasks,
+                                                   myFixture.getSingletonService(VcsModificationHistory.class), myOutbox);
     myListener.setEventProcessedCallback(myEventProcessedCallback);
     myPublisher = new MockPublisher(myPublisherSettings, MockPublisherSettings.PUBLISHER_ID, myBuildType, myFeatureDescriptor.getId(),
                                     Collections.emptyMap(), myProblems, myLogger, myWebLinks);
@@ -89,6 +95,31 @@ public class CommitStatusPublisherListenerTest extends CommitStatusPublisherTest
     then(myPublisher.getEventsReceived()).isEqualTo(Arrays.asList(Event.QUEUED, Event.STARTED));
   }
 
+  public void should_dispatch_tasks_directly_on_single_node() {
+    setInternalProperty(CommitStatusPublisherListener.SINGLE_NODE_DISPATCH_PROPERTY_NAME, "true");
+    prepareVcs();
+    myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+    SRunningBuild runningBuild = myFixture.flushQueueAndWait();
+    waitForTasksToFinish(Event.STARTED);
+    myFixture.finishBuild(runningBuild, false);
+    waitForTasksToFinish(Event.FINISHED);
+    then(myPublisher.getEventsReceived()).isEqualTo(Arrays.asList(Event.QUEUED, Event.STARTED, Event.FINISHED));
+    then(myMultiNodeTasks.findFinishedTasks(Arrays.asList(Event.QUEUED.getName(), Event.STARTED.getName(), Event.FINISHED.getName()), Dates.ONE_MINUTE)).isEmpty();
+    then(myListener.getDirectDispatchLatency().getCount()).isEqualTo(3);
+    then(myListener.getMultiNodeDispatchLatency().getCount()).isZero();
+  }
+
+  public void should_record_dispatch_latency_of_multi_node_tasks() {
+    prepareVcs();
+    myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+    myFixture.flushQueueAndWait();
+    waitForTasksToFinish(Event.STARTED);
+    then(myListener.getMultiNodeDispatchLatency().getCount()).isEqualTo(2);
+    then(myListener.getDirectDispatchLatency().getCount()).isZero();
+  }
+
   public void should_not_publish_remove_from_queue_before_start() {
     prepareVcs();
     myBuildType.addToQueue("");
@@ -204,6 +235,130 @@ public class CommitStatusPublisherListenerTest extends CommitStatusPublisherTest
     then(myPublisher.getLastComment()).isEqualTo("TeamCity build removed from queue");
   }
 
+  public void should_publish_removed_from_queue_once_for_builds_removed_together() {
+    setInternalProperty(CommitStatusPublisherListener.REMOVED_FROM_QUEUE_BATCH_WINDOW_PROPERTY_NAME, "300");
+    prepareVcs();
+    build().in(myBuildType).parameter("mock", "val1").addToQueue();
+    build().in(myBuildType).parameter("mock", "val2").addToQueue();
+    then(myBuildType.getQueuedBuilds(null)).hasSize(2);
+    waitForTasksToFinish(Event.QUEUED);
+
+    myServer.getQueue().removeAllFromQueue();
+    waitFor(() -> myListener.getRemovedFromQueueBatcher().getBatchesCount() == 1, TASK_COMPLETION_TIMEOUT_MS);
+    waitForTasksToFinish(Event.REMOVED_FROM_QUEUE);
+
+    then(myListener.getRemovedFromQueueBatcher().getMaxBatchSize()).isEqualTo(2);
+    then(myPublisher.getEventsReceived().stream().filter(event -> event == Event.REMOVED_FROM_QUEUE).count()).isEqualTo(1);
+  }
+
+  public void should_replace_queued_status_when_removal_event_is_lost() {
+    setInternalProperty(CommitStatusPublisherListener.QUEUED_STATUSES_MIN_AGE_PROPERTY_NAME, "0");
+    prepareVcs();
+    SQueuedBuild queuedBuild = myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+    long promotionId = queuedBuild.getBuildPromotion().getId();
+    then(myListener.getQueuedStatusesTracker().isTracked(promotionId)).isTrue();
+
+    myListener.sweepQueuedStatuses();
+    then(myListener.getQueuedStatusesTracker().isTracked(promotionId)).isTrue();
+
+    myFixture.getEventDispatcher().removeListener(myListener);
+    myServer.getQueue().removeAllFromQueue();
+    myListener.sweepQueuedStatuses();
+
+    waitFor(() -> DefaultStatusMessages.BUILD_REMOVED_FROM_QUEUE.equals(myPublisher.getLastComment()), TASK_COMPLETION_TIMEOUT_MS);
+    then(myListener.getQueuedStatusesTracker().isTracked(promotionId)).isFalse();
+  }
+
+  public void should_replace_queued_status_published_before_restart() {
+    setInternalProperty(CommitStatusPublisherListener.QUEUED_STATUSES_MIN_AGE_PROPERTY_NAME, "0");
+    prepareVcs();
+    SQueuedBuild queuedBuild = myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+    long promotionId = queuedBuild.getBuildPromotion().getId();
+    then(myOutbox.getQueuedStatuses()).containsKey(promotionId);
+
+    // the in-memory tracking is lost on restart, the removal from the queue happens while the server is down
+    myListener.getQueuedStatusesTracker().untrack(promotionId);
+    myFixture.getEventDispatcher().removeListener(myListener);
+    myServer.getQueue().removeAllFromQueue();
+
+    myListener.restoreQueuedStatuses();
+    then(myListener.getQueuedStatusesTracker().isTracked(promotionId)).isTrue();
+    myListener.sweepQueuedStatuses();
+
+    waitFor(() -> DefaultStatusMessages.BUILD_REMOVED_FROM_QUEUE.equals(myPublisher.getLastComment()), TASK_COMPLETION_TIMEOUT_MS);
+    then(myListener.getQueuedStatusesTracker().isTracked(promotionId)).isFalse();
+    then(myOutbox.getQueuedStatuses()).doesNotContainKey(promotionId);
+  }
+
+  public void should_stop_tracking_queued_status_of_started_build() {
+    setInternalProperty(CommitStatusPublisherListener.QUEUED_STATUSES_MIN_AGE_PROPERTY_NAME, "0");
+    prepareVcs();
+    SQueuedBuild queuedBuild = myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+    myFixture.flushQueueAndWait();
+    waitForTasksToFinish(Event.STARTED);
+
+    myListener.sweepQueuedStatuses();
+    then(myListener.getQueuedStatusesTracker().isTracked(queuedBuild.getBuildPromotion().getId())).isFalse();
+    then(myPublisher.getEventsReceived()).isEqualTo(Arrays.asList(Event.QUEUED, Event.STARTED));
+  }
+
+  public void should_publish_comments_changed_in_a_row_once() {
+    setInternalProperty(CommitStatusPublisherListener.COMMENTED_DEBOUNCE_WINDOW_PROPERTY_NAME, "300");
+    prepareVcs();
+    myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+    SRunningBuild runningBuild = myFixture.flushQueueAndWait();
+    waitForTasksToFinish(Event.STARTED);
+
+    runningBuild.setBuildComment(myUser, "first");
+    runningBuild.setBuildComment(myUser, "second");
+    runningBuild.setBuildComment(myUser, "third");
+    waitFor(() -> myListener.getCommentedDebouncer().getPendingCount() == 0, TASK_COMPLETION_TIMEOUT_MS);
+    waitForTasksToFinish(Event.COMMENTED);
+
+    then(myListener.getCommentedDebouncer().getMergedCount()).isEqualTo(2);
+    then(myPublisher.getEventsReceived()).isEqualTo(Arrays.asList(Event.QUEUED, Event.STARTED, Event.COMMENTED));
+  }
+
+  public void should_absorb_pending_comment_into_finished() {
+    setInternalProperty(CommitStatusPublisherListener.COMMENTED_DEBOUNCE_WINDOW_PROPERTY_NAME, "60000");
+    prepareVcs();
+    myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+    SRunningBuild runningBuild = myFixture.flushQueueAndWait();
+    waitForTasksToFinish(Event.STARTED);
+
+    runningBuild.setBuildComment(myUser, "comment");
+    then(myListener.getCommentedDebouncer().getPendingCount()).isEqualTo(1);
+    myFixture.finishBuild(runningBuild, false);
+    waitForTasksToFinish(Event.FINISHED);
+
+    then(myListener.getCommentedDebouncer().getCancelledCount()).isEqualTo(1);
+    then(myPublisher.getEventsReceived()).isEqualTo(Arrays.asList(Event.QUEUED, Event.STARTED, Event.FINISHED));
+  }
+
+  public void should_absorb_pending_comment_into_interrupted() {
+    setInternalProperty(CommitStatusPublisherListener.COMMENTED_DEBOUNCE_WINDOW_PROPERTY_NAME, "60000");
+    prepareVcs();
+    myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+    SRunningBuild runningBuild = myFixture.flushQueueAndWait();
+    waitForTasksToFinish(Event.STARTED);
+
+    runningBuild.setBuildComment(myUser, "comment");
+    then(myListener.getCommentedDebouncer().getPendingCount()).isEqualTo(1);
+    runningBuild.setInterrupted(RunningBuildState.INTERRUPTED_BY_USER, myUser, "My reason");
+    finishBuild(false);
+    waitForTasksToFinish(Event.INTERRUPTED);
+
+    then(myListener.getCommentedDebouncer().getCancelledCount()).isEqualTo(1);
+    then(myListener.getCommentedDebouncer().getPendingCount()).isZero();
+    then(myPublisher.getEventsReceived()).isEqualTo(Arrays.asList(Event.QUEUED, Event.STARTED, Event.INTERRUPTED));
+  }
+
   public void should_publish_finished_success() {
     prepareVcs();
     myBuildType.addToQueue("");
@@ -334,6 +489,25 @@ public class CommitStatusPublisherListenerTest extends CommitStatusPublisherTest
     then(problems.size()).isEqualTo(4); // Must be 4 in total, neither 1 nor 5
   }
 
+  public void should_republish_status_failed_to_be_published() {
+    setInternalProperty(CommitStatusPublisherListener.OUTBOX_REPLAY_MIN_AGE_PROPERTY_NAME, "0");
+    prepareVcs();
+    SRunningBuild runningBuild = myFixture.startBuild(myBuildType);
+    myPublisher.shouldReportError();
+    myFixture.finishBuild(runningBuild, false);
+    waitForTasksToFinish(Event.FINISHED);
+    then(myOutbox.size()).isEqualTo(1);
+    then(myPublisher.getEventsReceived()).containsOnlyOnce(Event.FINISHED);
+
+    myPublisher.shouldNotReportError();
+    // the status is republished once it is older than the configured min age
+    waitFor(() -> !myOutbox.getPendingBefore(System.currentTimeMillis(), 1).isEmpty(), TASK_COMPLETION_TIMEOUT_MS);
+    myLastEventProcessed = null;
+    myListener.replayOutbox();
+    waitForTasksToFinish(Event.FINISHED);
+    waitFor(() -> myOutbox.size() == 0, TASK_COMPLETION_TIMEOUT_MS);
+    then(myPublisher.getEventsReceived().stream().filter(e -> e == Event.FINISHED).count()).isEqualTo(2);
+  }
 
   public void should_not_publish_additional_status_if_marked_successful() {
     prepareVcs();
@@ -494,6 +668,121 @@ public class CommitStatusPublisherListenerTest extends CommitStatusPublisherTest
     assertEquals(DefaultStatusMessages.BUILD_QUEUED, myPublisher.getLastComment());
   }
 
+  public void should_publish_queued_status_for_new_commit_before_promotions_cache_refresh_time() {
+    setInternalProperty(CommitStatusPublisherListener.EXPECTED_PROMOTIONS_CACHE_REFRESH_TIME_PROPERTY_NAME, "2000");
+    setInternalProperty(CommitStatusPublisherListener.PROMOTIONS_CACHE_POLL_INTERVAL_PROPERTY_NAME, "10");
+    prepareVcs();
+    myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+
+    VcsRootInstance vcsRootInstance = myBuildType.getVcsRootInstances().iterator().next();
+    VcsRootInstanceImpl root = new VcsRootInstanceImpl(vcsRootInstance.getId(), vcsRootInstance.getVcsName(), vcsRootInstance.getParentId(), vcsRootInstance.getName(),
+                                                       vcsRootInstance.getProperties(), myFixture.getSingletonService(VcsRootInstanceContext.class));
+    SVcsModification modification = myFixture.addModification(new ModificationData(new Date(),
+                                                                                   Collections.singletonList(
+                                                                                     new VcsChange(VcsChangeInfo.Type.CHANGED, "changed", "file", "file", "2", "3")),
+                                                                                   "descr", "user", root, "rev1_3", "rev1_3"));
+    long start = System.currentTimeMillis();
+    myListener.changeAdded(modification, root, Collections.singleton(myBuildType));
+    waitFor(() -> myPublisher.getCommentsReceived().size() == 2, 2000 + TASK_COMPLETION_TIMEOUT_MS);
+    long latency = System.currentTimeMillis() - start;
+
+    // the dummy build gets the new revision right away, so the processing should not wait for the whole expected refresh time
+    then(latency).isLessThan(2000);
+    then(myPublisher.getLastComment()).isEqualTo(DefaultStatusMessages.BUILD_QUEUED);
+  }
+
+  public void should_publish_queued_statuses_of_several_builds_in_batch_task() {
+    prepareVcs();
+    SVcsRoot vcsRoot = myBuildType.getVcsRoots().iterator().next();
+    SBuildType secondBuildType = myProject.createBuildType("secondBuildType", "Second build type");
+    secondBuildType.addVcsRoot(vcsRoot);
+    secondBuildType.addBuildFeature(CommitStatusPublisherFeature.TYPE, Collections.singletonMap(Constants.PUBLISHER_ID_PARAM, MockPublisherSettings.PUBLISHER_ID));
+    myBuildType.addToQueue("");
+    secondBuildType.addToQueue("");
+    waitFor(() -> myPublisher.getCommentsReceived().size() == 2, TASK_COMPLETION_TIMEOUT_MS);
+
+    VcsRootInstance vcsRootInstance = myBuildType.getVcsRootInstances().iterator().next();
+    VcsRootInstanceImpl root = new VcsRootInstanceImpl(vcsRootInstance.getId(), vcsRootInstance.getVcsName(), vcsRootInstance.getParentId(), vcsRootInstance.getName(),
+                                                       vcsRootInstance.getProperties(), myFixture.getSingletonService(VcsRootInstanceContext.class));
+    SVcsModification modification = myFixture.addModification(new ModificationData(new Date(),
+                                                                                   Collections.singletonList(
+                                                                                     new VcsChange(VcsChangeInfo.Type.CHANGED, "changed", "file", "file", "2", "3")),
+                                                                                   "descr", "user", root, "rev1_3", "rev1_3"));
+    myListener.changeAdded(modification, root, Arrays.asList(myBuildType, secondBuildType));
+
+    waitFor(() -> myPublisher.getCommentsReceived().size() == 4, TASK_COMPLETION_TIMEOUT_MS);
+    then(myMultiNodeTasks.findFinishedTasks(Collections.singleton(CommitStatusPublisherListener.QUEUED_BATCH_TASK_TYPE), Dates.ONE_MINUTE)).hasSize(1);
+  }
+
+  public void should_not_enqueue_modifications_of_roots_without_commit_status_publishing() {
+    prepareVcs();
+    myBuildType.removeBuildFeature(myFeatureDescriptor.getId());
+    VcsRootInstance vcsRootInstance = myBuildType.getVcsRootInstances().iterator().next();
+    VcsRootInstanceImpl root = new VcsRootInstanceImpl(vcsRootInstance.getId(), vcsRootInstance.getVcsName(), vcsRootInstance.getParentId(), vcsRootInstance.getName(),
+                                                       vcsRootInstance.getProperties(), myFixture.getSingletonService(VcsRootInstanceContext.class));
+    SVcsModification modification = myFixture.addModification(new ModificationData(new Date(),
+                                                                                   Collections.singletonList(
+                                                                                     new VcsChange(VcsChangeInfo.Type.CHANGED, "changed", "file", "file", "2", "3")),
+                                                                                   "descr", "user", root, "rev1_3", "rev1_3"));
+    myListener.changeAdded(modification, root, Collections.singleton(myBuildType));
+    // the root is indexed by the modifications processing, not by the changes collecting thread
+    then(myListener.getFilteredModificationsCount()).isZero();
+    waitFor(() -> myListener.getIndexedVcsRootsCount() == 1, TASK_COMPLETION_TIMEOUT_MS);
+
+    SVcsModification nextModification = myFixture.addModification(new ModificationData(new Date(),
+                                                                                       Collections.singletonList(
+                                                                                         new VcsChange(VcsChangeInfo.Type.CHANGED, "changed", "file", "file", "3", "4")),
+                                                                                       "descr", "user", root, "rev1_4", "rev1_4"));
+    myListener.changeAdded(nextModification, root, Collections.singleton(myBuildType));
+
+    then(myListener.getFilteredModificationsCount()).isEqualTo(1);
+    then(myListener.getDroppedModificationsCount()).isZero();
+    then(myPublisher.getCommentsReceived()).isEmpty();
+  }
+
+  public void should_filter_modifications_of_roots_indexed_on_startup() {
+    prepareVcs();
+    myBuildType.removeBuildFeature(myFeatureDescriptor.getId());
+    myListener.serverStartup();
+    try {
+      waitFor(() -> myListener.getIndexedVcsRootsCount() == 1, TASK_COMPLETION_TIMEOUT_MS);
+
+      VcsRootInstance vcsRootInstance = myBuildType.getVcsRootInstances().iterator().next();
+      VcsRootInstanceImpl root = new VcsRootInstanceImpl(vcsRootInstance.getId(), vcsRootInstance.getVcsName(), vcsRootInstance.getParentId(), vcsRootInstance.getName(),
+                                                         vcsRootInstance.getProperties(), myFixture.getSingletonService(VcsRootInstanceContext.class));
+      SVcsModification modification = myFixture.addModification(new ModificationData(new Date(),
+                                                                                     Collections.singletonList(
+                                                                                       new VcsChange(VcsChangeInfo.Type.CHANGED, "changed", "file", "file", "2", "3")),
+                                                                                     "descr", "user", root, "rev1_3", "rev1_3"));
+      myListener.changeAdded(modification, root, Collections.singleton(myBuildType));
+
+      then(myListener.getFilteredModificationsCount()).isEqualTo(1);
+    } finally {
+      myListener.serverShutdown();
+    }
+  }
+
+  public void should_reindex_vcs_root_usages_on_settings_change() {
+    prepareVcs();
+    myBuildType.addToQueue("");
+    waitForTasksToFinish(Event.QUEUED);
+
+    VcsRootInstance vcsRootInstance = myBuildType.getVcsRootInstances().iterator().next();
+    VcsRootInstanceImpl root = new VcsRootInstanceImpl(vcsRootInstance.getId(), vcsRootInstance.getVcsName(), vcsRootInstance.getParentId(), vcsRootInstance.getName(),
+                                                       vcsRootInstance.getProperties(), myFixture.getSingletonService(VcsRootInstanceContext.class));
+    SVcsModification modification = myFixture.addModification(new ModificationData(new Date(),
+                                                                                   Collections.singletonList(
+                                                                                     new VcsChange(VcsChangeInfo.Type.CHANGED, "changed", "file", "file", "2", "3")),
+                                                                                   "descr", "user", root, "rev1_3", "rev1_3"));
+    myListener.changeAdded(modification, root, Collections.singleton(myBuildType));
+    waitFor(() -> myPublisher.getCommentsReceived().size() == 2, TASK_COMPLETION_TIMEOUT_MS);
+    then(myListener.getIndexedVcsRootsCount()).isEqualTo(1);
+
+    myListener.buildTypePersisted(myBuildType);
+    then(myListener.getIndexedVcsRootsCount()).isZero();
+  }
+
   @Test(enabled = false)  // Should pass after TW-75702
   public void should_not_publish_queued_status_because_of_checkout_rule() {
     prepareVcs();
@@ -546,14 +835,31 @@ public class CommitStatusPublisherListenerTest extends CommitStatusPublisherTest
     waitForTasksToFinish(Event.QUEUED);
     RunningBuildEx runningBuild = myFixture.flushQueueAndWait();
     waitForTasksToFinish(Event.STARTED);
-    assertEquals(3, myPublisher.getCommentsReceived().size());
+    assertEquals(2, myPublisher.getCommentsReceived().size());
     secondQueuedBuild.removeFromQueue(myUser, "test");
     myFixture.finishBuild(runningBuild, false);
     waitForTasksToFinish(Event.FINISHED);
-    assertEquals(4, myPublisher.getCommentsReceived().size());
+    assertEquals(3, myPublisher.getCommentsReceived().size());
     assertEquals(DefaultStatusMessages.BUILD_FINISHED, myPublisher.getLastComment());
     assertFalse(myPublisher.getCommentsReceived().stream().anyMatch(comment -> comment.contains(DefaultStatusMessages.BUILD_REMOVED_FROM_QUEUE)));
-    then(myPublisher.getEventsReceived()).isEqualTo(Arrays.asList(Event.QUEUED, Event.QUEUED, Event.STARTED, Event.FINISHED));
+    then(myPublisher.getEventsReceived()).isEqualTo(Arrays.asList(Event.QUEUED, Event.STARTED, Event.FINISHED));
+  }
+
+  public void should_keep_queued_status_while_identical_build_is_queued() {
+    prepareVcs();
+    build().in(myBuildType).parameter("mock", "val1").addToQueue();
+    SQueuedBuild secondQueuedBuild = build().in(myBuildType).parameter("mock", "val2").addToQueue();
+    then(myBuildType.getQueuedBuilds(null)).hasSize(2);
+    waitFor(() -> myListener.getQueuedStatusOwners().getSharedCount() == 1, TASK_COMPLETION_TIMEOUT_MS);
+    then(myPublisher.getEventsReceived()).isEqualTo(Collections.singletonList(Event.QUEUED));
+
+    secondQueuedBuild.removeFromQueue(myUser, "test");
+    waitFor(() -> myListener.getQueuedStatusOwners().getRetainedCount() == 1, TASK_COMPLETION_TIMEOUT_MS);
+    then(myPublisher.getEventsReceived()).isEqualTo(Collections.singletonList(Event.QUEUED));
+    then(myPublisher.getLastComment()).isEqualTo(DefaultStatusMessages.BUILD_QUEUED);
+
+    myServer.getQueue().removeAllFromQueue();
+    waitFor(() -> DefaultStatusMessages.BUILD_REMOVED_FROM_QUEUE.equals(myPublisher.getLastComment()), TASK_COMPLETION_TIMEOUT_MS);
   }
 
   public void shoudl_publish_queued_on_passed_revision() throws PublisherException {
@@ -576,6 +882,21 @@ public class CommitStatusPublisherListenerTest extends CommitStatusPublisherTest
     then(myPublisher.getPublishingTargetRevisions()).doesNotContain(modififcation2.getVersion());
   }
 
+  public void should_collect_changes_in_advance_only_for_custom_checkout_rules() {
+    prepareVcs();
+    BuildPromotion promotion = myBuildType.addToQueue("").getBuildPromotion();
+    then(myListener.shouldCollectChangesNow(promotion)).isFalse();
+
+    SVcsRoot vcsRoot = myBuildType.getVcsRoots().iterator().next();
+    myBuildType.setCheckoutRules(vcsRoot, new CheckoutRules("+:src => ."));
+    myListener.buildTypePersisted(myBuildType);
+    then(myListener.shouldCollectChangesNow(promotion)).isTrue();
+
+    myBuildType.getProject().addParameter(new SimpleParameter(CommitStatusPublisherListener.PUBLISHING_ENABLED_PROPERTY_NAME, "false"));
+    myListener.projectPersisted(myBuildType.getProjectId());
+    then(myListener.shouldCollectChangesNow(promotion)).isFalse();
+  }
+
   private void prepareVcs() {
    prepareVcs("vcs1", "111", "rev1_2", SetVcsRootIdMode.EXT_ID);
   }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class DrainQueueTest {
+
+  public void should_drain_in_bounded_batches_preserving_order() {
+    DrainQueue<Integer> queue = new DrainQueue<>();
+    IntStream.range(0, 25).forEach(queue::add);
+    then(queue.size()).isEqualTo(25);
+
+    List<Integer> drained = new ArrayList<>();
+    List<Integer> batch;
+    int batches = 0;
+    while (!(batch = queue.drain(10)).isEmpty()) {
+      then(batch.size()).isLessThanOrEqualTo(10);
+      drained.addAll(batch);
+      batches++;
+    }
+
+    then(batches).isEqualTo(3);
+    then(drained).isEqualTo(IntStream.range(0, 25).boxed().collect(Collectors.toList()));
+    then(queue.isEmpty()).isTrue();
+    then(queue.size()).isZero();
+  }
+
+  public void should_drain_elements_added_while_draining() {
+    DrainQueue<Integer> queue = new DrainQueue<>();
+    queue.add(1);
+    then(queue.drain(10)).containsExactly(1);
+    queue.add(2);
+    queue.add(3);
+    then(queue.drain(1)).containsExactly(2);
+    then(queue.drain(1)).containsExactly(3);
+    then(queue.drain(1)).isEmpty();
+  }
+
+  public void should_drop_new_elements_when_full() {
+    DrainQueue<Integer> queue = new DrainQueue<>(() -> 2);
+    then(queue.add(1)).isTrue();
+    then(queue.add(2)).isTrue();
+    then(queue.add(3)).isFalse();
+    then(queue.size()).isEqualTo(2);
+    then(queue.getDroppedCount()).isEqualTo(1);
+
+    then(queue.drain(1)).containsExactly(1);
+    then(queue.add(4)).isTrue();
+    then(queue.drain(10)).containsExactly(2, 4);
+  }
+
+  public void processing_should_grow_linearly() {
+    long smallChecks = countJoinChecks(10_000);
+    long largeChecks = countJoinChecks(50_000);
+    // every modification is checked against its 3 related build types only, checking all the build types
+    // of the batch against every modification would make five times more modifications take about 25 times more checks
+    then(smallChecks).isEqualTo(10_000 * 3);
+    then(largeChecks).isEqualTo(smallChecks * 5);
+  }
+
+  /**
+   * Drains the modifications in batches, groups them by root and finds the affected build types the way the listener does
+   * @return number of the join predicate invocations
+   */
+  private static long countJoinChecks(int modificationsCount) {
+    DrainQueue<Modification> queue = new DrainQueue<>(() -> modificationsCount);
+    for (int i = 0; i < modificationsCount; i++) {
+      queue.add(new Modification(i % 100, i));
+    }
+    List<String> buildTypes = IntStream.range(0, 300).mapToObj(i -> "bt" + i).collect(Collectors.toList());
+    AtomicLong checks = new AtomicLong();
+    int processed = 0;
+    int roots = 0;
+    List<Modification> batch;
+    while (!(batch = queue.drain(1_000)).isEmpty()) {
+      Map<Long, List<Modification>> modificationsByRoot = CommitStatusPublisherListener.groupByRoot(batch, Modification::getRootId);
+      roots += modificationsByRoot.size();
+      for (List<Modification> rootModifications : modificationsByRoot.values()) {
+        processed += rootModifications.size();
+        List<String> affected = ModificationsJoin.findAffectedBuildTypes(rootModifications, Modification::getRelatedBuildTypeIds,
+                                                                         ids -> buildTypes.stream().filter(ids::contains).collect(Collectors.toList()),
+                                                                         bt -> bt, (bt, modification) -> {
+            checks.incrementAndGet();
+            return false;
+          });
+        then(affected).isEmpty();
+      }
+    }
+    then(processed).isEqualTo(modificationsCount);
+    then(roots).isEqualTo(modificationsCount / 1_000 * 100);
+    return checks.get();
+  }
+
+  private static class Modification {
+    private final long myRootId;
+    private final long myId;
+
+    private Modification(long rootId, long id) {
+      myRootId = rootId;
+      myId = id;
+    }
+
+    long getRootId() {
+      return myRootId;
+    }
+
+    @NotNull
+    List<String> getRelatedBuildTypeIds() {
+      return Arrays.asList("bt" + myRootId * 3, "bt" + (myRootId * 3 + 1), "bt" + (myRootId * 3 + 2));
+    }
+
+    @Override
+    public String toString() {
+      return myRootId + ":" + myId;
+    }
+  }
+}
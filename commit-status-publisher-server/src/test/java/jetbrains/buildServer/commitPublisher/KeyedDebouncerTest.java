@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class KeyedDebouncerTest {
+
+  private final List<String> myRuns = new CopyOnWriteArrayList<>();
+  private final ScheduledExecutorService myScheduler = Executors.newSingleThreadScheduledExecutor();
+  private KeyedDebouncer<Long> myDebouncer;
+
+  @AfterMethod
+  protected void tearDown() {
+    if (myDebouncer != null) {
+      myDebouncer.shutdown();
+    }
+    myRuns.clear();
+  }
+
+  @AfterClass
+  protected void shutdownScheduler() {
+    myScheduler.shutdownNow();
+  }
+
+  public void should_run_latest_action_once_per_key() throws InterruptedException {
+    myDebouncer = new KeyedDebouncer<>("test", myScheduler, () -> 200);
+    CountDownLatch done = new CountDownLatch(2);
+    myDebouncer.schedule(1L, () -> { myRuns.add("1:a"); done.countDown(); });
+    myDebouncer.schedule(1L, () -> { myRuns.add("1:b"); done.countDown(); });
+    myDebouncer.schedule(2L, () -> { myRuns.add("2:a"); done.countDown(); });
+    then(myRuns).isEmpty();
+
+    then(done.await(5, TimeUnit.SECONDS)).isTrue();
+    Thread.sleep(100);
+    then(myRuns).containsExactlyInAnyOrder("1:b", "2:a");
+    then(myDebouncer.getMergedCount()).isEqualTo(1);
+    then(myDebouncer.getPendingCount()).isZero();
+  }
+
+  public void should_not_run_cancelled_action() throws InterruptedException {
+    myDebouncer = new KeyedDebouncer<>("test", myScheduler, () -> 100);
+    myDebouncer.schedule(1L, () -> myRuns.add("1"));
+    then(myDebouncer.cancel(1L)).isTrue();
+    then(myDebouncer.cancel(1L)).isFalse();
+
+    Thread.sleep(300);
+    then(myRuns).isEmpty();
+    then(myDebouncer.getCancelledCount()).isEqualTo(1);
+  }
+
+  public void should_run_right_away_without_window() {
+    myDebouncer = new KeyedDebouncer<>("test", myScheduler, () -> 0);
+    myDebouncer.schedule(1L, () -> myRuns.add("a"));
+    myDebouncer.schedule(1L, () -> myRuns.add("b"));
+    then(myRuns).containsExactly("a", "b");
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.List;
+import java.util.concurrent.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class KeyedSerialExecutorTest {
+
+  private ExecutorService myExecutorService;
+  private KeyedSerialExecutor myExecutor;
+
+  @BeforeMethod
+  protected void setUp() {
+    myExecutorService = Executors.newFixedThreadPool(4);
+    myExecutor = new KeyedSerialExecutor(myExecutorService);
+  }
+
+  @AfterMethod
+  protected void tearDown() {
+    myExecutorService.shutdownNow();
+  }
+
+  public void should_run_tasks_with_same_key_in_submission_order() throws Exception {
+    List<Integer> executed = new CopyOnWriteArrayList<>();
+    CompletableFuture<Void> last = null;
+    for (int i = 0; i < 100; i++) {
+      int index = i;
+      last = myExecutor.submit("key", () -> executed.add(index));
+    }
+    last.get(10, TimeUnit.SECONDS);
+    then(executed).hasSize(100).isSorted();
+    then(myExecutor.getTotalQueueingDelay().getCount()).isEqualTo(100);
+  }
+
+  public void should_wait_for_asynchronous_part_of_previous_task() throws Exception {
+    CompletableFuture<Void> slowPart = new CompletableFuture<>();
+    CompletableFuture<Void> first = myExecutor.submit("key", () -> slowPart);
+    CountDownLatch secondStarted = new CountDownLatch(1);
+    CompletableFuture<Void> second = myExecutor.submit("key", secondStarted::countDown);
+
+    then(secondStarted.await(200, TimeUnit.MILLISECONDS)).isFalse();
+    slowPart.complete(null);
+    second.get(10, TimeUnit.SECONDS);
+    then(first).isCompleted();
+  }
+
+  public void should_not_block_other_keys() throws Exception {
+    CountDownLatch blocker = new CountDownLatch(1);
+    CompletableFuture<Void> blocked = myExecutor.submit("slow", () -> {
+      try {
+        blocker.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    myExecutor.submit("fast", () -> {}).get(10, TimeUnit.SECONDS);
+    then(blocked).isNotDone();
+    blocker.countDown();
+    blocked.get(10, TimeUnit.SECONDS);
+  }
+
+  public void should_continue_after_failed_task() throws Exception {
+    CompletableFuture<Void> failed = myExecutor.submit("key", (Runnable)() -> { throw new IllegalStateException("failure"); });
+    myExecutor.submit("key", () -> {}).get(10, TimeUnit.SECONDS);
+    then(failed).isCompletedExceptionally();
+  }
+}
@@ -125,6 +125,8 @@ class MockPublisher extends BaseCommitStatusPublisher implements CommitStatusPub
 
   void shouldReportError() {myShouldReportError = true; }
 
+  void shouldNotReportError() {myShouldReportError = false; }
+
   private void pretendToHandleEvent(Event event) throws PublisherException {
     if (myEventsToWait.contains(event)) {
       try {
@@ -185,6 +187,7 @@ class MockPublisher extends BaseCommitStatusPublisher implements CommitStatusPub
       throw new PublisherException(PUBLISHER_ERROR);
     } else if (myShouldReportError) {
       myProblems.reportProblem(this, "My build", null, null, myLogger);
+      return false;
     }
     return true;
   }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class ModificationsJoinTest {
+
+  public void should_find_same_build_types_as_nested_loops() {
+    Random random = new Random(42);
+    List<String> buildTypes = IntStream.range(0, 300).mapToObj(i -> "bt" + i).collect(Collectors.toList());
+    List<Modification> modifications = IntStream.range(0, 50)
+                                                .mapToObj(i -> new Modification(i, random.ints(random.nextInt(20), 0, buildTypes.size())
+                                                                                          .mapToObj(buildTypes::get)
+                                                                                          .collect(Collectors.toSet())))
+                                                .collect(Collectors.toList());
+    BiPredicate<String, Modification> isAffected = (bt, m) -> m.myRelated.contains(bt) && (bt.hashCode() + m.myId) % 3 != 0;
+
+    List<String> expected = findWithNestedLoops(buildTypes, modifications, isAffected);
+    List<String> actual = ModificationsJoin.findAffectedBuildTypes(modifications, m -> m.myRelated, ids -> find(buildTypes, ids), bt -> bt, isAffected);
+
+    then(expected).isNotEmpty();
+    then(actual).containsExactlyInAnyOrderElementsOf(expected);
+  }
+
+  public void should_check_only_related_pairs() {
+    List<String> buildTypes = IntStream.range(0, 3_000).mapToObj(i -> "bt" + i).collect(Collectors.toList());
+    // every modification is related to 5 build types out of 3000
+    List<Modification> modifications = IntStream.range(0, 200)
+                                                .mapToObj(i -> new Modification(i, IntStream.range(0, 5).mapToObj(j -> buildTypes.get((i * 7 + j * 500) % buildTypes.size()))
+                                                                                             .collect(Collectors.toSet())))
+                                                .collect(Collectors.toList());
+    AtomicLong checks = new AtomicLong();
+    List<String> affected = ModificationsJoin.findAffectedBuildTypes(modifications, m -> m.myRelated, ids -> find(buildTypes, ids), bt -> bt, (bt, m) -> {
+      checks.incrementAndGet();
+      return false;
+    });
+
+    then(affected).isEmpty();
+    then(checks.get()).isLessThanOrEqualTo(200 * 5);
+  }
+
+  public void should_handle_modifications_without_related_build_types() {
+    then(ModificationsJoin.findAffectedBuildTypes(Collections.singletonList(new Modification(1, Collections.emptySet())),
+                                                  m -> m.myRelated, ids -> { throw new AssertionError("should not resolve build types"); },
+                                                  bt -> bt, (bt, m) -> true)).isEmpty();
+  }
+
+  private static List<String> find(List<String> buildTypes, Set<String> ids) {
+    return buildTypes.stream().filter(ids::contains).collect(Collectors.toList());
+  }
+
+  private static List<String> findWithNestedLoops(List<String> buildTypes, List<Modification> modifications, BiPredicate<String, Modification> isAffected) {
+    Set<String> relatedIds = modifications.stream().flatMap(m -> m.myRelated.stream()).collect(Collectors.toSet());
+    Set<String> result = new LinkedHashSet<>();
+    for (String buildType : find(buildTypes, relatedIds)) {
+      for (Modification modification : modifications) {
+        if (isAffected.test(buildType, modification)) {
+          result.add(buildType);
+        }
+      }
+    }
+    return new ArrayList<>(result);
+  }
+
+  private static class Modification {
+    private final int myId;
+    private final Set<String> myRelated;
+
+    private Modification(int id, Set<String> related) {
+      myId = id;
+      myRelated = related;
+    }
+  }
+}
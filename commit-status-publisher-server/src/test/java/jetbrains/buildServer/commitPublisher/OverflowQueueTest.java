@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class OverflowQueueTest {
+
+  private OverflowQueue myQueue;
+  private List<String> myDropped;
+
+  @BeforeMethod
+  protected void setUp() {
+    myQueue = new OverflowQueue(() -> 2);
+    myDropped = new ArrayList<>();
+  }
+
+  @AfterMethod
+  protected void tearDown() {
+    myQueue.shutdown();
+  }
+
+  public void should_return_tasks_of_highest_priority_first() {
+    myQueue.offer(new NamedTask("queued"), PublishingPriority.QUEUED);
+    myQueue.offer(new NamedTask("terminal"), PublishingPriority.TERMINAL);
+
+    then(myQueue.size()).isEqualTo(2);
+    then(myQueue.poll()).hasToString("terminal");
+    then(myQueue.poll()).hasToString("queued");
+    then(myQueue.poll()).isNull();
+  }
+
+  public void should_drop_oldest_task_of_lowest_priority_when_full() {
+    myQueue.offer(new NamedTask("started"), PublishingPriority.STARTED);
+    myQueue.offer(new NamedTask("queued"), PublishingPriority.QUEUED);
+    myQueue.offer(new NamedTask("terminal"), PublishingPriority.TERMINAL);
+
+    then(myDropped).containsExactly("queued");
+    then(myQueue.getDroppedCount()).isEqualTo(1);
+    then(myQueue.poll()).hasToString("terminal");
+    then(myQueue.poll()).hasToString("started");
+  }
+
+  public void should_not_drop_terminal_task_for_intermediate_one() {
+    myQueue.offer(new NamedTask("finished"), PublishingPriority.TERMINAL);
+    myQueue.offer(new NamedTask("interrupted"), PublishingPriority.TERMINAL);
+    myQueue.offer(new NamedTask("started"), PublishingPriority.STARTED);
+
+    then(myDropped).containsExactly("started");
+    then(myQueue.size()).isEqualTo(2);
+
+    myQueue.offer(new NamedTask("failure detected"), PublishingPriority.TERMINAL);
+    then(myDropped).containsExactly("started", "finished");
+    then(myQueue.poll()).hasToString("interrupted");
+    then(myQueue.poll()).hasToString("failure detected");
+  }
+
+  public void should_drop_tasks_offered_after_shutdown() {
+    myQueue.shutdown();
+    myQueue.offer(new NamedTask("finished"), PublishingPriority.TERMINAL);
+
+    then(myDropped).containsExactly("finished");
+    then(myQueue.size()).isZero();
+  }
+
+  private class NamedTask implements Runnable, OverflowQueue.Droppable {
+    private final String myName;
+
+    private NamedTask(String name) {
+      myName = name;
+    }
+
+    @Override
+    public void run() {
+    }
+
+    @Override
+    public void dropped() {
+      myDropped.add(myName);
+    }
+
+    @Override
+    public String toString() {
+      return myName;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class PublisherRegistryTest extends CommitStatusPublisherTestBase {
+
+  private PublisherRegistry myRegistry;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    myRegistry = new PublisherRegistry(new PublisherManager(myServer));
+  }
+
+  public void should_reuse_publisher_for_same_settings() {
+    CommitStatusPublisher publisher = getPublisher();
+    then(publisher).isNotNull();
+    then(getPublisher()).isSameAs(publisher);
+  }
+
+  public void should_create_new_publisher_when_parameters_change() {
+    CommitStatusPublisher publisher = getPublisher();
+    Map<String, String> params = new HashMap<>(myFeatureDescriptor.getParameters());
+    params.put(Constants.VCS_ROOT_ID_PARAM, "anotherVcsRoot");
+    myBuildType.updateBuildFeature(myFeatureDescriptor.getId(), myFeatureDescriptor.getType(), params);
+    then(getPublisher()).isNotNull().isNotSameAs(publisher);
+  }
+
+  public void should_create_new_publisher_after_invalidation() {
+    CommitStatusPublisher publisher = getPublisher();
+    myRegistry.invalidate(myBuildType);
+    then(myRegistry.size()).isEqualTo(0);
+    then(getPublisher()).isNotNull().isNotSameAs(publisher);
+  }
+
+  public void should_forget_publisher_of_removed_feature() {
+    then(getPublisher()).isNotNull();
+    myBuildType.removeBuildFeature(myFeatureDescriptor.getId());
+    then(myRegistry.getPublishers(myBuildType)).isEmpty();
+    then(myRegistry.size()).isEqualTo(0);
+  }
+
+  private CommitStatusPublisher getPublisher() {
+    return myRegistry.getPublishers(myBuildType).get(myFeatureDescriptor.getId());
+  }
+}
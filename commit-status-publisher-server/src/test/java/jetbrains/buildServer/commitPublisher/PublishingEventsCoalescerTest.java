@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import jetbrains.buildServer.commitPublisher.CommitStatusPublisher.Event;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class PublishingEventsCoalescerTest {
+
+  private PublishingEventsCoalescer myCoalescer;
+
+  @BeforeMethod
+  protected void setUp() {
+    myCoalescer = new PublishingEventsCoalescer();
+  }
+
+  public void should_publish_single_event() {
+    myCoalescer.offer(1, Event.STARTED);
+    then(myCoalescer.take(1, Event.STARTED)).isTrue();
+    then(myCoalescer.getCollapsedEventsCount()).isEqualTo(0);
+    then(myCoalescer.getPendingBuildsCount()).isEqualTo(0);
+  }
+
+  public void should_drop_intermediate_events_superseded_by_finished() {
+    myCoalescer.offer(1, Event.STARTED);
+    myCoalescer.offer(1, Event.FAILURE_DETECTED);
+    myCoalescer.offer(1, Event.COMMENTED);
+    myCoalescer.offer(1, Event.FINISHED);
+    then(myCoalescer.take(1, Event.STARTED)).isFalse();
+    then(myCoalescer.take(1, Event.FAILURE_DETECTED)).isFalse();
+    then(myCoalescer.take(1, Event.COMMENTED)).isFalse();
+    then(myCoalescer.take(1, Event.FINISHED)).isTrue();
+    then(myCoalescer.getCollapsedEventsCount()).isEqualTo(3);
+  }
+
+  public void should_not_drop_events_already_taken() {
+    myCoalescer.offer(1, Event.STARTED);
+    then(myCoalescer.take(1, Event.STARTED)).isTrue();
+    myCoalescer.offer(1, Event.FINISHED);
+    then(myCoalescer.take(1, Event.FINISHED)).isTrue();
+    then(myCoalescer.getCollapsedEventsCount()).isEqualTo(0);
+  }
+
+  public void should_publish_repeated_events_once() {
+    myCoalescer.offer(1, Event.COMMENTED);
+    myCoalescer.offer(1, Event.COMMENTED);
+    then(myCoalescer.take(1, Event.COMMENTED)).isTrue();
+    then(myCoalescer.take(1, Event.COMMENTED)).isFalse();
+    then(myCoalescer.getCollapsedEventsCount()).isEqualTo(1);
+  }
+
+  public void should_not_let_first_events_supersede_consequent_ones() {
+    myCoalescer.offer(1, Event.FINISHED);
+    myCoalescer.offer(1, Event.STARTED);
+    then(myCoalescer.take(1, Event.FINISHED)).isTrue();
+    then(myCoalescer.take(1, Event.STARTED)).isTrue();
+  }
+
+  public void should_keep_builds_separate() {
+    myCoalescer.offer(1, Event.STARTED);
+    myCoalescer.offer(2, Event.FINISHED);
+    then(myCoalescer.take(1, Event.STARTED)).isTrue();
+    then(myCoalescer.take(2, Event.FINISHED)).isTrue();
+    then(myCoalescer.getCollapsedEventsCount()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class PublishingExecutorTest {
+
+  private ExecutorService mySharedExecutor;
+  private PublishingExecutor myExecutor;
+
+  @BeforeMethod
+  protected void setUp() {
+    mySharedExecutor = Executors.newCachedThreadPool();
+    myExecutor = new PublishingExecutor(mySharedExecutor, new OverflowQueue());
+  }
+
+  @AfterMethod
+  protected void tearDown() {
+    myExecutor.shutdown();
+    mySharedExecutor.shutdownNow();
+  }
+
+  public void should_limit_concurrency_per_host() throws Exception {
+    CountDownLatch blocker = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(6);
+    Executor slowHost = myExecutor.forHost("https://slow.example.com/api/v4", "gitlab", PublishingPriority.TERMINAL);
+    for (int i = 0; i < 6; i++) {
+      slowHost.execute(() -> {
+        try {
+          blocker.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        finished.countDown();
+      });
+    }
+
+    CountDownLatch otherHostTask = new CountDownLatch(1);
+    myExecutor.forHost("https://api.github.com", "githubStatusPublisher", PublishingPriority.TERMINAL).execute(otherHostTask::countDown);
+    then(otherHostTask.await(10, TimeUnit.SECONDS)).isTrue();
+
+    then(myExecutor.getRunningPerHost().get("slow.example.com")).isEqualTo(4);
+    then(myExecutor.getWaitingPerHost().get("slow.example.com")).isEqualTo(2);
+
+    blocker.countDown();
+    then(finished.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  public void should_run_terminal_statuses_before_queued() throws Exception {
+    List<CountDownLatch> blockers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      CountDownLatch blocker = new CountDownLatch(1);
+      blockers.add(blocker);
+      myExecutor.forHost("https://github.example.com", "githubStatusPublisher", PublishingPriority.STARTED).execute(() -> await(blocker));
+    }
+
+    List<String> executed = new CopyOnWriteArrayList<>();
+    CountDownLatch terminalExecuted = new CountDownLatch(1);
+    CountDownLatch queuedExecuted = new CountDownLatch(1);
+    myExecutor.forHost("https://github.example.com", "githubStatusPublisher", PublishingPriority.QUEUED).execute(() -> {
+      executed.add("queued");
+      queuedExecuted.countDown();
+    });
+    myExecutor.forHost("https://github.example.com", "githubStatusPublisher", PublishingPriority.TERMINAL).execute(() -> {
+      executed.add("terminal");
+      terminalExecuted.countDown();
+    });
+    then(myExecutor.getLaneDepths().get(PublishingPriority.QUEUED)).isEqualTo(1);
+    then(myExecutor.getLaneDepths().get(PublishingPriority.TERMINAL)).isEqualTo(1);
+
+    blockers.get(0).countDown();
+    then(terminalExecuted.await(10, TimeUnit.SECONDS)).isTrue();
+    then(executed).containsExactly("terminal");
+
+    blockers.forEach(CountDownLatch::countDown);
+    then(queuedExecuted.await(10, TimeUnit.SECONDS)).isTrue();
+    then(executed).containsExactly("terminal", "queued");
+  }
+
+  public void should_share_bulkhead_for_same_host() {
+    then(PublishingExecutor.getHost("https://GitLab.example.com/api/v4")).isEqualTo("gitlab.example.com");
+    then(PublishingExecutor.getHost("http://gitlab.example.com:8080/")).isEqualTo("gitlab.example.com");
+    then(PublishingExecutor.getHost("")).isNull();
+    then(PublishingExecutor.getHost(null)).isNull();
+  }
+
+  private static void await(@NotNull CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
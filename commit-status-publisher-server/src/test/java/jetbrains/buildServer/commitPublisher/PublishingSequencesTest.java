@@ -0,0 +1,63 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.commitPublisher;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class PublishingSequencesTest {
+
+  private PublishingSequences mySequences;
+
+  @BeforeMethod
+  protected void setUp() {
+    mySequences = new PublishingSequences();
+  }
+
+  public void should_issue_increasing_sequence_numbers() {
+    long previous = mySequences.next(1);
+    for (int i = 0; i < 1000; i++) {
+      long next = mySequences.next(1);
+      then(next).isEqualTo(previous + 1);
+      previous = next;
+    }
+    then(mySequences.next(2)).isEqualTo(1);
+  }
+
+  public void should_discard_stale_task() {
+    long started = mySequences.next(1);
+    long finished = mySequences.next(1);
+
+    then(mySequences.advance(1, "feature:1:abc", finished)).isTrue();
+    then(mySequences.advance(1, "feature:1:abc", started)).isFalse();
+    then(mySequences.advance(1, "feature:1:def", started)).isTrue();
+    then(mySequences.advance(2, "feature:1:abc", started)).isTrue();
+  }
+
+  public void should_discard_stale_task_after_terminal_status() {
+    long failureDetected = mySequences.next(1);
+    long finished = mySequences.next(1);
+
+    then(mySequences.advance(1, "feature:1:abc", finished)).isTrue();
+    then(mySequences.advance(1, "feature:1:abc", finished)).isTrue();
+    then(mySequences.advance(1, "feature:1:abc", failureDetected)).isFalse();
+    then(mySequences.size()).isEqualTo(1);
+  }
+}
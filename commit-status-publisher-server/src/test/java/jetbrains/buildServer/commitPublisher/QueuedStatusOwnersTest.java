@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongPredicate;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class QueuedStatusOwnersTest {
+
+  private final Set<Long> myQueued = new HashSet<>();
+  private final LongPredicate myIsQueued = myQueued::contains;
+
+  public void should_publish_queued_status_once_for_identical_promotions() {
+    QueuedStatusOwners owners = new QueuedStatusOwners();
+    myQueued.add(1L);
+    myQueued.add(2L);
+
+    then(owners.register("key", 1, myIsQueued)).isTrue();
+    then(owners.register("key", 2, myIsQueued)).isFalse();
+    then(owners.register("other key", 2, myIsQueued)).isTrue();
+    // the first promotion updates its own status
+    then(owners.register("key", 1, myIsQueued)).isTrue();
+    then(owners.getSharedCount()).isEqualTo(1);
+  }
+
+  public void should_replace_status_after_last_identical_promotion_left_queue() {
+    QueuedStatusOwners owners = new QueuedStatusOwners();
+    myQueued.add(1L);
+    myQueued.add(2L);
+    owners.register("key", 1, myIsQueued);
+    owners.register("key", 2, myIsQueued);
+
+    myQueued.remove(2L);
+    then(owners.unregister("key", 2, myIsQueued)).isFalse();
+    then(owners.getRetainedCount()).isEqualTo(1);
+    myQueued.remove(1L);
+    then(owners.unregister("key", 1, myIsQueued)).isTrue();
+    then(owners.size()).isZero();
+    then(owners.unregister("unknown", 3, myIsQueued)).isTrue();
+  }
+
+  public void should_forget_promotions_which_left_queue_without_removal() {
+    QueuedStatusOwners owners = new QueuedStatusOwners();
+    myQueued.add(1L);
+    owners.register("key", 1, myIsQueued);
+
+    myQueued.remove(1L);
+    myQueued.add(2L);
+    then(owners.register("key", 2, myIsQueued)).isTrue();
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class QueuedStatusesTrackerTest {
+
+  public void should_return_promotions_published_before_time_oldest_first() {
+    QueuedStatusesTracker tracker = new QueuedStatusesTracker(() -> 100);
+    tracker.track(3, 300);
+    tracker.track(1, 100);
+    tracker.track(2, 200);
+    tracker.track(4, 400);
+
+    then(tracker.getPublishedBefore(350)).containsExactly(1L, 2L, 3L);
+    tracker.untrack(2);
+    then(tracker.getPublishedBefore(350)).containsExactly(1L, 3L);
+    then(tracker.isTracked(4)).isTrue();
+  }
+
+  public void should_keep_first_publish_time() {
+    QueuedStatusesTracker tracker = new QueuedStatusesTracker(() -> 100);
+    then(tracker.track(1, 100)).isTrue();
+    then(tracker.track(1, 500)).isFalse();
+    then(tracker.getPublishedBefore(200)).containsExactly(1L);
+    then(tracker.untrack(1)).isTrue();
+    then(tracker.untrack(1)).isFalse();
+  }
+
+  public void should_not_grow_over_max_size() {
+    QueuedStatusesTracker tracker = new QueuedStatusesTracker(() -> 2);
+    tracker.track(1, 100);
+    tracker.track(2, 100);
+    tracker.track(3, 100);
+    tracker.track(1, 200);
+
+    then(tracker.size()).isEqualTo(2);
+    then(tracker.isTracked(3)).isFalse();
+    then(tracker.getNotTrackedCount()).isEqualTo(1);
+  }
+}
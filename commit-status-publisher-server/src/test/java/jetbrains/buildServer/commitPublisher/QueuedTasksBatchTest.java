@@ -0,0 +1,55 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class QueuedTasksBatchTest {
+
+  public void should_split_ids_into_batches() {
+    List<Long> ids = LongStream.rangeClosed(1, 250).boxed().collect(Collectors.toList());
+    List<String> batches = QueuedTasksBatch.encode(ids, 100);
+
+    then(batches).hasSize(3);
+    then(QueuedTasksBatch.decode(batches.get(0))).hasSize(100).startsWith(1L);
+    then(QueuedTasksBatch.decode(batches.get(2))).hasSize(50).endsWith(250L);
+    then(batches.stream().flatMap(batch -> QueuedTasksBatch.decode(batch).stream()).collect(Collectors.toList())).isEqualTo(ids);
+  }
+
+  public void should_handle_empty_and_malformed_batches() {
+    then(QueuedTasksBatch.encode(Collections.emptyList(), 100)).isEmpty();
+    then(QueuedTasksBatch.decode(null)).isEmpty();
+    then(QueuedTasksBatch.decode("")).isEmpty();
+    then(QueuedTasksBatch.decode("1,abc,3")).isEqualTo(Arrays.asList(1L, 3L));
+  }
+
+  public void should_give_different_identities_to_different_batches() {
+    // "Aa" and "BB" have the same String.hashCode
+    then(QueuedTasksBatch.getIdentity("1,Aa")).isNotEqualTo(QueuedTasksBatch.getIdentity("1,BB"));
+    then(QueuedTasksBatch.getIdentity("1,2,3")).isNotEqualTo(QueuedTasksBatch.getIdentity("1,2,4"));
+    then(QueuedTasksBatch.getIdentity("1,2,3")).isEqualTo(QueuedTasksBatch.getIdentity("1,2,3")).startsWith("1:3:");
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2000-2022 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.commitPublisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+@Test
+public class WindowedBatcherTest {
+
+  private final List<List<Integer>> myBatches = new CopyOnWriteArrayList<>();
+  private final ScheduledExecutorService myScheduler = Executors.newSingleThreadScheduledExecutor();
+  private WindowedBatcher<Integer> myBatcher;
+
+  @AfterMethod
+  protected void tearDown() {
+    if (myBatcher != null) {
+      myBatcher.shutdown();
+    }
+    myBatches.clear();
+  }
+
+  @AfterClass
+  protected void shutdownScheduler() {
+    myScheduler.shutdownNow();
+  }
+
+  public void should_collect_items_arriving_within_window() throws InterruptedException {
+    CountDownLatch flushed = new CountDownLatch(1);
+    myBatcher = new WindowedBatcher<>("test", myScheduler, () -> 200, batch -> {
+      myBatches.add(new ArrayList<>(batch));
+      flushed.countDown();
+    });
+    myBatcher.add(1);
+    myBatcher.add(2);
+    myBatcher.add(3);
+    then(myBatches).isEmpty();
+
+    then(flushed.await(5, TimeUnit.SECONDS)).isTrue();
+    then(myBatches).containsExactly(Arrays.asList(1, 2, 3));
+    then(myBatcher.getBatchesCount()).isEqualTo(1);
+    then(myBatcher.getMaxBatchSize()).isEqualTo(3);
+  }
+
+  public void should_process_item_right_away_if_flush_is_rejected() {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    scheduler.shutdownNow();
+    myBatcher = new WindowedBatcher<>("test", scheduler, () -> 200, batch -> myBatches.add(new ArrayList<>(batch)));
+    myBatcher.add(1);
+    myBatcher.add(2);
+
+    then(myBatches).containsExactly(Collections.singletonList(1), Collections.singletonList(2));
+  }
+
+  public void should_start_new_window_after_flush() throws InterruptedException {
+    CountDownLatch flushed = new CountDownLatch(2);
+    myBatcher = new WindowedBatcher<>("test", myScheduler, () -> 50, batch -> {
+      myBatches.add(new ArrayList<>(batch));
+      flushed.countDown();
+    });
+    myBatcher.add(1);
+    Thread.sleep(300);
+    myBatcher.add(2);
+
+    then(flushed.await(5, TimeUnit.SECONDS)).isTrue();
+    then(myBatches).containsExactly(Collections.singletonList(1), Collections.singletonList(2));
+    then(myBatcher.getAverageBatchSize()).isEqualTo(1.0);
+  }
+
+  public void should_pass_items_right_away_without_window() {
+    myBatcher = new WindowedBatcher<>("test", myScheduler, () -> 0, batch -> myBatches.add(new ArrayList<>(batch)));
+    myBatcher.add(1);
+    myBatcher.add(2);
+    then(myBatches).containsExactly(Collections.singletonList(1), Collections.singletonList(2));
+  }
+}